@@ -0,0 +1,68 @@
+package meldexun.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import meldexun.configutil.FieldAccessor;
+import meldexun.configutil.FieldPlan;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AccessorBenchmark {
+
+	public static class Target {
+
+		private int primitive;
+		private Object reference = "value";
+
+	}
+
+	@Param
+	public FieldAccessor.Backend backend;
+
+	private final Target src = new Target();
+	private final Target dest = new Target();
+	private FieldAccessor primitive;
+	private FieldAccessor reference;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException {
+		FieldPlan plan = FieldPlan.get(Target.class, null);
+		primitive = plan.get("primitive").accessor(backend);
+		reference = plan.get("reference").accessor(backend);
+	}
+
+	@Benchmark
+	public int incrementInt() throws ReflectiveOperationException {
+		int value = primitive.getInt(src) + 1;
+		primitive.setInt(src, value);
+		return value;
+	}
+
+	@Benchmark
+	public Object getObject() throws ReflectiveOperationException {
+		return reference.get(src);
+	}
+
+	@Benchmark
+	public void copy() throws ReflectiveOperationException {
+		primitive.copy(src, dest);
+		reference.copy(src, dest);
+	}
+
+}
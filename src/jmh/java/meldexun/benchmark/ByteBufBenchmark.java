@@ -0,0 +1,99 @@
+package meldexun.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import meldexun.configutil.ByteBufUtil;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ByteBufBenchmark {
+
+	@Param
+	public Shape shape;
+	@Param
+	public Format format;
+	@Param
+	public ByteBufUtil.Engine engine;
+
+	private Object src;
+	private Object dest;
+	private ByteBuf buffer;
+	private ByteBuf encoded;
+
+	@Setup(Level.Trial)
+	public void setup() throws ReflectiveOperationException {
+		ByteBufUtil.setEngine(engine);
+		src = shape.create();
+		dest = shape.create();
+		buffer = Unpooled.buffer();
+		encoded = Unpooled.buffer();
+		ByteBufUtil.write(src, encoded, null, format.format);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		ByteBufUtil.setEngine(ByteBufUtil.Engine.REFLECTION);
+		buffer.release();
+		encoded.release();
+	}
+
+	@Benchmark
+	public ByteBuf write(Bytes bytes) throws ReflectiveOperationException {
+		buffer.clear();
+		ByteBufUtil.write(src, buffer, null, format.format);
+		bytes.bytes += buffer.writerIndex();
+		return buffer;
+	}
+
+	@Benchmark
+	public Object read(Bytes bytes) throws ReflectiveOperationException {
+		encoded.readerIndex(0);
+		bytes.bytes += encoded.writerIndex();
+		return ByteBufUtil.read(src.getClass(), encoded, null, format.format);
+	}
+
+	@Benchmark
+	public Object readInPlace(Bytes bytes) throws ReflectiveOperationException {
+		encoded.readerIndex(0);
+		bytes.bytes += encoded.writerIndex();
+		return ByteBufUtil.read(dest, encoded, null, format.format);
+	}
+
+	/**
+	 * Reported as bytes per second; divided by the operation throughput this gives the payload size per operation.
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Bytes {
+
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			bytes = 0;
+		}
+
+	}
+
+}
@@ -0,0 +1,93 @@
+package meldexun.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import meldexun.configutil.ConfigUtil;
+import meldexun.configutil.SyncSnapshot;
+
+/**
+ * The {@link ConfigUtil.Sync} paths as used by a server sending settings and a client applying them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ConfigSyncBenchmark {
+
+	@Param
+	public Shape shape;
+	@Param
+	public Format format;
+
+	private Object server;
+	private Object client;
+	private SyncSnapshot<Object> snapshot;
+	private ByteBuf buffer;
+	private ByteBuf encoded;
+
+	@Setup(Level.Trial)
+	public void setup() throws ReflectiveOperationException {
+		server = shape.create();
+		client = shape.create();
+		snapshot = new SyncSnapshot<>();
+		buffer = Unpooled.buffer();
+		encoded = Unpooled.buffer();
+		ConfigUtil.writeServerSettings(server, encoded, format.format);
+		ConfigUtil.writeServerSettingsDelta(server, snapshot, Unpooled.buffer(), format.format);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		buffer.release();
+		encoded.release();
+	}
+
+	@Benchmark
+	public ByteBuf writeServerSettings(ByteBufBenchmark.Bytes bytes) throws ReflectiveOperationException {
+		buffer.clear();
+		ConfigUtil.writeServerSettings(server, buffer, format.format);
+		bytes.bytes += buffer.writerIndex();
+		return buffer;
+	}
+
+	@Benchmark
+	public ByteBuf writeServerSettingsDelta(ByteBufBenchmark.Bytes bytes) throws ReflectiveOperationException {
+		buffer.clear();
+		ConfigUtil.writeServerSettingsDelta(server, snapshot, buffer, format.format);
+		bytes.bytes += buffer.writerIndex();
+		return buffer;
+	}
+
+	@Benchmark
+	public Object readServerSettings(ByteBufBenchmark.Bytes bytes) throws ReflectiveOperationException {
+		encoded.readerIndex(0);
+		bytes.bytes += encoded.writerIndex();
+		ConfigUtil.readServerSettings(client, encoded);
+		return client;
+	}
+
+	@Benchmark
+	public Object copyClientSettings() throws ReflectiveOperationException {
+		ConfigUtil.copyClientSettings(server, client);
+		return client;
+	}
+
+}
@@ -0,0 +1,65 @@
+package meldexun.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import meldexun.configutil.CopyUtil;
+import meldexun.configutil.FieldAccessor;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CopyBenchmark {
+
+	@Param
+	public Shape shape;
+	@Param
+	public FieldAccessor.Backend backend;
+
+	private Object src;
+	private Object dest;
+
+	@Setup(Level.Trial)
+	public void setup() throws ReflectiveOperationException {
+		CopyUtil.setAccessorBackend(backend);
+		src = shape.create();
+		dest = shape.create();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		CopyUtil.setAccessorBackend(FieldAccessor.Backend.REFLECTION);
+	}
+
+	@Benchmark
+	public Object copy() throws ReflectiveOperationException {
+		return CopyUtil.copy(src, null);
+	}
+
+	@Benchmark
+	public Object copyInto() throws ReflectiveOperationException {
+		return CopyUtil.copy(src, dest, null);
+	}
+
+	@Benchmark
+	public Object update() throws ReflectiveOperationException {
+		return CopyUtil.update(src, dest, null);
+	}
+
+}
@@ -0,0 +1,17 @@
+package meldexun.benchmark;
+
+import meldexun.configutil.WireFormat;
+
+public enum Format {
+
+	DEFAULT(WireFormat.DEFAULT),
+	COMPACT(WireFormat.COMPACT),
+	COMPACT_TABLES(WireFormat.COMPACT.with(WireFormat.Feature.NULL_BITMAP).with(WireFormat.Feature.STRING_TABLE));
+
+	final WireFormat format;
+
+	Format(WireFormat format) {
+		this.format = format;
+	}
+
+}
@@ -0,0 +1,197 @@
+package meldexun.benchmark;
+
+import java.util.Random;
+
+import meldexun.configutil.ConfigUtil.Sync;
+
+/**
+ * Config shapes the benchmarks are parameterized over. Instances are filled from a fixed seed so runs are comparable.
+ */
+public enum Shape {
+
+	FLAT {
+		@Override
+		Object create(Random rand) {
+			return Flat.create(rand);
+		}
+	},
+	NESTED {
+		@Override
+		Object create(Random rand) {
+			return Node.create(rand, 6);
+		}
+	},
+	PRIMITIVE_ARRAYS {
+		@Override
+		Object create(Random rand) {
+			return PrimitiveArrays.create(rand);
+		}
+	},
+	STRING_ARRAY {
+		@Override
+		Object create(Random rand) {
+			return StringArray.create(rand);
+		}
+	},
+	SPARSE_SYNC {
+		@Override
+		Object create(Random rand) {
+			return SparseSync.create(rand);
+		}
+	};
+
+	abstract Object create(Random rand);
+
+	public Object create() {
+		return create(new Random(0x5EED));
+	}
+
+	public static class Flat {
+
+		@Sync
+		public boolean z1, z2, z3, z4;
+		@Sync
+		public int i1, i2, i3, i4;
+		@Sync
+		public long l1, l2;
+		@Sync
+		public float f1, f2;
+		@Sync
+		public double d1, d2;
+		@Sync
+		public String s1, s2;
+
+		static Flat create(Random rand) {
+			Flat flat = new Flat();
+			flat.z1 = rand.nextBoolean();
+			flat.z2 = rand.nextBoolean();
+			flat.z3 = rand.nextBoolean();
+			flat.z4 = rand.nextBoolean();
+			flat.i1 = rand.nextInt(100);
+			flat.i2 = rand.nextInt(10000);
+			flat.i3 = rand.nextInt();
+			flat.i4 = -rand.nextInt(100);
+			flat.l1 = rand.nextInt(1000);
+			flat.l2 = rand.nextLong();
+			flat.f1 = rand.nextFloat();
+			flat.f2 = rand.nextFloat();
+			flat.d1 = rand.nextDouble();
+			flat.d2 = rand.nextDouble();
+			flat.s1 = "minecraft:stone";
+			flat.s2 = "option_" + rand.nextInt(100);
+			return flat;
+		}
+
+	}
+
+	public static class Node {
+
+		@Sync
+		public int value;
+		@Sync
+		public String name;
+		@Sync
+		public Node child;
+		@Sync
+		public Node[] children;
+
+		static Node create(Random rand, int depth) {
+			Node node = new Node();
+			node.value = rand.nextInt(1000);
+			node.name = "node_" + depth;
+			if (depth > 0) {
+				node.child = create(rand, 0);
+				node.children = new Node[3];
+				for (int i = 0; i < node.children.length; i++) {
+					node.children[i] = create(rand, depth - 1);
+				}
+			}
+			return node;
+		}
+
+	}
+
+	public static class PrimitiveArrays {
+
+		@Sync
+		public byte[] bytes;
+		@Sync
+		public boolean[] flags;
+		@Sync
+		public int[] ints;
+		@Sync
+		public double[] doubles;
+
+		static PrimitiveArrays create(Random rand) {
+			PrimitiveArrays arrays = new PrimitiveArrays();
+			arrays.bytes = new byte[65536];
+			rand.nextBytes(arrays.bytes);
+			arrays.flags = new boolean[4096];
+			for (int i = 0; i < arrays.flags.length; i++) {
+				arrays.flags[i] = rand.nextBoolean();
+			}
+			arrays.ints = rand.ints(65536, 0, 1000).toArray();
+			arrays.doubles = rand.doubles(16384).toArray();
+			return arrays;
+		}
+
+	}
+
+	public static class StringArray {
+
+		@Sync
+		public String[] strings;
+
+		static StringArray create(Random rand) {
+			StringArray array = new StringArray();
+			array.strings = new String[10000];
+			for (int i = 0; i < array.strings.length; i++) {
+				array.strings[i] = "minecraft:item_" + rand.nextInt(500);
+			}
+			return array;
+		}
+
+	}
+
+	public static class SparseSync {
+
+		@Sync
+		public int syncedInt;
+		@Sync
+		public String syncedString;
+		@Sync
+		public int[] syncedInts;
+		@Sync
+		public boolean syncedFlag;
+		public int i1, i2, i3, i4, i5, i6, i7, i8;
+		public long l1, l2, l3, l4;
+		public double d1, d2, d3, d4;
+		public String s1, s2, s3, s4;
+		public int[] ia1, ia2, ia3, ia4;
+		public Flat f1, f2, f3, f4;
+
+		static SparseSync create(Random rand) {
+			SparseSync sparse = new SparseSync();
+			sparse.syncedInt = rand.nextInt();
+			sparse.syncedString = "synced";
+			sparse.syncedInts = rand.ints(16).toArray();
+			sparse.syncedFlag = rand.nextBoolean();
+			sparse.i1 = sparse.i2 = sparse.i3 = sparse.i4 = rand.nextInt();
+			sparse.i5 = sparse.i6 = sparse.i7 = sparse.i8 = rand.nextInt();
+			sparse.l1 = sparse.l2 = sparse.l3 = sparse.l4 = rand.nextLong();
+			sparse.d1 = sparse.d2 = sparse.d3 = sparse.d4 = rand.nextDouble();
+			sparse.s1 = sparse.s2 = sparse.s3 = sparse.s4 = "client";
+			sparse.ia1 = rand.ints(256).toArray();
+			sparse.ia2 = rand.ints(256).toArray();
+			sparse.ia3 = rand.ints(256).toArray();
+			sparse.ia4 = rand.ints(256).toArray();
+			sparse.f1 = Flat.create(rand);
+			sparse.f2 = Flat.create(rand);
+			sparse.f3 = Flat.create(rand);
+			sparse.f4 = Flat.create(rand);
+			return sparse;
+		}
+
+	}
+
+}
@@ -0,0 +1,169 @@
+package meldexun.configutil;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Generates a {@link GeneratedAccessor} subclass per field for {@link FieldAccessor.Backend#METHOD_HANDLE}. Java 8's
+ * {@code LambdaMetafactory} can't spin lambdas from field getter/setter handles, and handles held in instance fields
+ * are invoked through a generic invoker, so each accessor class gets its own {@code static final} handles instead.
+ * Accessors are generated once per field and the classes of one declaring class share a class loader.
+ */
+class AccessorGenerator implements Opcodes {
+
+	private static final String PACKAGE = "meldexun/configutil/generated/";
+	private static final String SUPER_NAME = Type.getInternalName(GeneratedAccessor.class);
+	private static final String METHOD_HANDLE = Type.getInternalName(MethodHandle.class);
+	private static final String METHOD_HANDLE_DESC = Type.getDescriptor(MethodHandle.class);
+	private static final String[] HANDLE_NAMES = { "GETTER", "SETTER", "OBJECT_GETTER", "OBJECT_SETTER", "COPIER" };
+
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+	private static final ClassValue<DeclaringClass> DECLARING_CLASSES = new ClassValue<DeclaringClass>() {
+
+		@Override
+		protected DeclaringClass computeValue(Class<?> type) {
+			return new DeclaringClass();
+		}
+
+	};
+
+	static FieldAccessor get(Field field) throws ReflectiveOperationException {
+		DeclaringClass declaringClass = DECLARING_CLASSES.get(field.getDeclaringClass());
+		FieldAccessor accessor = declaringClass.accessors.get(field);
+		if (accessor == null) {
+			synchronized (declaringClass) {
+				accessor = declaringClass.accessors.get(field);
+				if (accessor == null) {
+					accessor = generate(field, declaringClass.classLoader);
+					declaringClass.accessors.put(field, accessor);
+				}
+			}
+		}
+		return accessor;
+	}
+
+	private static FieldAccessor generate(Field field, SerializerGenerator.GeneratorClassLoader classLoader)
+			throws ReflectiveOperationException {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		Class<?> type = field.getType();
+		MethodHandle rawGetter = lookup.unreflectGetter(field);
+		MethodHandle rawSetter = lookup.unreflectSetter(field);
+		MethodHandle getter = rawGetter.asType(MethodType.methodType(type, Object.class));
+		MethodHandle setter = rawSetter.asType(MethodType.methodType(void.class, Object.class, type));
+		MethodHandle copier = MethodHandles.permuteArguments(MethodHandles.filterArguments(setter, 1, getter),
+				MethodType.methodType(void.class, Object.class, Object.class), 1, 0);
+		MethodHandle[] handles = { getter, setter,
+				rawGetter.asType(MethodType.methodType(Object.class, Object.class)),
+				rawSetter.asType(MethodType.methodType(void.class, Object.class, Object.class)), copier };
+
+		String name = PACKAGE + field.getDeclaringClass().getSimpleName() + "_" + field.getName() + "Accessor"
+				+ COUNTER.incrementAndGet();
+		String className = name.replace('/', '.');
+		byte[] bytes = generateClass(name, className, type);
+		GeneratedAccessor.putHandles(className, handles);
+		try {
+			Class<?> generated = classLoader.define(className, bytes);
+			return (FieldAccessor) generated.getConstructor(Field.class).newInstance(field);
+		} finally {
+			GeneratedAccessor.removeHandles(className);
+		}
+	}
+
+	private static byte[] generateClass(String name, String className, Class<?> type) {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, name, null, SUPER_NAME, null);
+		for (String handle : HANDLE_NAMES) {
+			cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, handle, METHOD_HANDLE_DESC, null, null).visitEnd();
+		}
+
+		MethodVisitor mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+		mv.visitCode();
+		mv.visitLdcInsn(className);
+		mv.visitMethodInsn(INVOKESTATIC, SUPER_NAME, "takeHandles", "(Ljava/lang/String;)[" + METHOD_HANDLE_DESC,
+				false);
+		for (int i = 0; i < HANDLE_NAMES.length; i++) {
+			mv.visitInsn(DUP);
+			mv.visitLdcInsn(i);
+			mv.visitInsn(AALOAD);
+			mv.visitFieldInsn(PUTSTATIC, name, HANDLE_NAMES[i], METHOD_HANDLE_DESC);
+		}
+		mv.visitInsn(POP);
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		String constructorDesc = "(" + Type.getDescriptor(Field.class) + ")V";
+		mv = cw.visitMethod(ACC_PUBLIC, "<init>", constructorDesc, null, null);
+		mv.visitCode();
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitVarInsn(ALOAD, 1);
+		mv.visitMethodInsn(INVOKESPECIAL, SUPER_NAME, "<init>", constructorDesc, false);
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		if (type.isPrimitive()) {
+			Type valueType = Type.getType(type);
+			String suffix = Character.toUpperCase(type.getName().charAt(0)) + type.getName().substring(1);
+			generateGetter(cw, name, "get" + suffix, "GETTER", valueType);
+			generateSetter(cw, name, "set" + suffix, "SETTER", valueType);
+		}
+		Type objectType = Type.getType(Object.class);
+		generateGetter(cw, name, "get", "OBJECT_GETTER", objectType);
+		generateSetter(cw, name, "set", "OBJECT_SETTER", objectType);
+		generateSetter(cw, name, "copy", "COPIER", objectType);
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private static void generateGetter(ClassWriter cw, String name, String method, String handle, Type valueType) {
+		String desc = "(Ljava/lang/Object;)" + valueType.getDescriptor();
+		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_FINAL, method, desc, null, null);
+		mv.visitCode();
+		mv.visitFieldInsn(GETSTATIC, name, handle, METHOD_HANDLE_DESC);
+		mv.visitVarInsn(ALOAD, 1);
+		mv.visitMethodInsn(INVOKEVIRTUAL, METHOD_HANDLE, "invokeExact", desc, false);
+		mv.visitInsn(valueType.getOpcode(IRETURN));
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	/**
+	 * Also used for the copier, which has the same {@code (Object, Object)} signature as the object setter.
+	 */
+	private static void generateSetter(ClassWriter cw, String name, String method, String handle, Type valueType) {
+		String desc = "(Ljava/lang/Object;" + valueType.getDescriptor() + ")V";
+		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_FINAL, method, desc, null, null);
+		mv.visitCode();
+		mv.visitFieldInsn(GETSTATIC, name, handle, METHOD_HANDLE_DESC);
+		mv.visitVarInsn(ALOAD, 1);
+		mv.visitVarInsn(valueType.getOpcode(ILOAD), 2);
+		mv.visitMethodInsn(INVOKEVIRTUAL, METHOD_HANDLE, "invokeExact", desc, false);
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private static class DeclaringClass {
+
+		/**
+		 * The generated classes only refer to this library, not to the class declaring the field.
+		 */
+		private final SerializerGenerator.GeneratorClassLoader classLoader =
+				new SerializerGenerator.GeneratorClassLoader(AccessorGenerator.class.getClassLoader());
+		private final Map<Field, FieldAccessor> accessors = new ConcurrentHashMap<>();
+
+	}
+
+}
@@ -0,0 +1,172 @@
+package meldexun.configutil;
+
+import java.lang.reflect.Field;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * {@link Instrumentation} that sums up all events per class and per field. Safe to use from multiple threads.
+ */
+public class AggregatingInstrumentation implements Instrumentation {
+
+	private final Map<Class<?>, TypeStatistics> types = new ConcurrentHashMap<>();
+	private final Map<Field, FieldStatistics> fields = new ConcurrentHashMap<>();
+
+	private TypeStatistics type(Class<?> type) {
+		return types.computeIfAbsent(type, k -> new TypeStatistics());
+	}
+
+	private FieldStatistics field(Field field) {
+		return fields.computeIfAbsent(field, k -> new FieldStatistics());
+	}
+
+	@Override
+	public void objectWritten(Class<?> type, int bytes, long nanos) {
+		TypeStatistics statistics = type(type);
+		statistics.writes.increment();
+		statistics.writtenBytes.add(bytes);
+		statistics.writeNanos.add(nanos);
+	}
+
+	@Override
+	public void fieldWritten(Field field, int bytes) {
+		FieldStatistics statistics = field(field);
+		statistics.writes.increment();
+		statistics.writtenBytes.add(bytes);
+	}
+
+	@Override
+	public void arrayWritten(Class<?> type, int length, int bytes) {
+		TypeStatistics statistics = type(type);
+		statistics.writes.increment();
+		statistics.writtenBytes.add(bytes);
+		statistics.elements.add(length);
+	}
+
+	@Override
+	public void objectRead(Class<?> type, int bytes, long nanos, boolean reused) {
+		TypeStatistics statistics = type(type);
+		statistics.reads.increment();
+		statistics.readBytes.add(bytes);
+		statistics.readNanos.add(nanos);
+		(reused ? statistics.reused : statistics.allocated).increment();
+	}
+
+	@Override
+	public void fieldRead(Field field, int bytes) {
+		FieldStatistics statistics = field(field);
+		statistics.reads.increment();
+		statistics.readBytes.add(bytes);
+	}
+
+	@Override
+	public void arrayRead(Class<?> type, int length, int bytes, boolean reused) {
+		TypeStatistics statistics = type(type);
+		statistics.reads.increment();
+		statistics.readBytes.add(bytes);
+		statistics.elements.add(length);
+		(reused ? statistics.reused : statistics.allocated).increment();
+	}
+
+	@Override
+	public void objectCopied(Class<?> type, long nanos, boolean reused) {
+		TypeStatistics statistics = type(type);
+		statistics.copies.increment();
+		statistics.copyNanos.add(nanos);
+		(reused ? statistics.reused : statistics.allocated).increment();
+	}
+
+	@Override
+	public void arrayCopied(Class<?> type, int length, boolean reused) {
+		TypeStatistics statistics = type(type);
+		statistics.copies.increment();
+		statistics.elements.add(length);
+		(reused ? statistics.reused : statistics.allocated).increment();
+	}
+
+	public Map<Class<?>, TypeStatistics> getTypeStatistics() {
+		return types;
+	}
+
+	public Map<Field, FieldStatistics> getFieldStatistics() {
+		return fields;
+	}
+
+	public void reset() {
+		types.clear();
+		fields.clear();
+	}
+
+	/**
+	 * Lists the {@code limit} classes and fields with the most bytes written and the classes with the highest encode,
+	 * decode and copy times.
+	 */
+	public String report(int limit) {
+		StringBuilder sb = new StringBuilder();
+		appendTop(sb, "types by bytes written", types, s -> s.writtenBytes.sum(), limit, Class::getName);
+		appendTop(sb, "fields by bytes written", fields, s -> s.writtenBytes.sum(), limit,
+				field -> field.getDeclaringClass().getName() + "." + field.getName());
+		appendTop(sb, "types by encode time", types, s -> s.writeNanos.sum(), limit, Class::getName);
+		appendTop(sb, "types by decode time", types, s -> s.readNanos.sum(), limit, Class::getName);
+		appendTop(sb, "types by copy time", types, s -> s.copyNanos.sum(), limit, Class::getName);
+		long allocated = types.values().stream().mapToLong(s -> s.allocated.sum()).sum();
+		long reused = types.values().stream().mapToLong(s -> s.reused.sum()).sum();
+		sb.append(String.format("allocated=%d reused=%d%n", allocated, reused));
+		return sb.toString();
+	}
+
+	private static <K, V> void appendTop(StringBuilder sb, String title, Map<K, V> map, ToLongFunction<V> value,
+			int limit, Function<K, String> name) {
+		sb.append("Top ").append(limit).append(' ').append(title).append(':').append(System.lineSeparator());
+		map.entrySet()
+				.stream()
+				.filter(e -> value.applyAsLong(e.getValue()) > 0)
+				.sorted(Comparator.comparingLong((Map.Entry<K, V> e) -> value.applyAsLong(e.getValue())).reversed())
+				.limit(limit)
+				.forEach(e -> sb.append(String.format("  %-60s %d %s%n", name.apply(e.getKey()),
+						value.applyAsLong(e.getValue()), e.getValue())));
+	}
+
+	public static final class TypeStatistics {
+
+		public final LongAdder writes = new LongAdder();
+		public final LongAdder writtenBytes = new LongAdder();
+		public final LongAdder writeNanos = new LongAdder();
+		public final LongAdder reads = new LongAdder();
+		public final LongAdder readBytes = new LongAdder();
+		public final LongAdder readNanos = new LongAdder();
+		public final LongAdder copies = new LongAdder();
+		public final LongAdder copyNanos = new LongAdder();
+		public final LongAdder elements = new LongAdder();
+		public final LongAdder allocated = new LongAdder();
+		public final LongAdder reused = new LongAdder();
+
+		@Override
+		public String toString() {
+			return String.format("(writes=%d bytes=%d %.3fms, reads=%d bytes=%d %.3fms, copies=%d %.3fms)", writes.sum(),
+					writtenBytes.sum(), writeNanos.sum() / 1_000_000.0D, reads.sum(), readBytes.sum(),
+					readNanos.sum() / 1_000_000.0D, copies.sum(), copyNanos.sum() / 1_000_000.0D);
+		}
+
+	}
+
+	public static final class FieldStatistics {
+
+		public final LongAdder writes = new LongAdder();
+		public final LongAdder writtenBytes = new LongAdder();
+		public final LongAdder reads = new LongAdder();
+		public final LongAdder readBytes = new LongAdder();
+
+		@Override
+		public String toString() {
+			return String.format("(writes=%d bytes=%d, reads=%d bytes=%d)", writes.sum(), writtenBytes.sum(),
+					reads.sum(), readBytes.sum());
+		}
+
+	}
+
+}
@@ -0,0 +1,133 @@
+package meldexun.configutil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+/**
+ * Encodes the {@link ConfigUtil.Sync} fields of a config off the calling thread. {@link #encode(Object)} only copies
+ * the synced fields on the calling thread, serialization and compression with
+ * {@link ConfigUtil#writeServerSettings(Object, ByteBufAllocator, WireFormat)} run on the executor. Requests for a
+ * config equal to the one of an encoding that hasn't finished yet share that encoding and each receive a retained
+ * read-only duplicate.
+ */
+public final class AsyncEncoder<T> {
+
+	private final ByteBufAllocator allocator;
+	private final WireFormat format;
+	private final Executor executor;
+	@Nullable
+	private Encoding<T> pending;
+
+	public AsyncEncoder(ByteBufAllocator allocator, WireFormat format, Executor executor) {
+		this.allocator = allocator;
+		this.format = format;
+		this.executor = executor;
+	}
+
+	/**
+	 * Creates an executor with {@code threads} daemon threads that holds at most {@code queueCapacity} waiting
+	 * encodings. Further encodings are rejected instead of blocking the caller.
+	 */
+	public static ExecutorService newExecutor(int threads, int queueCapacity) {
+		AtomicInteger count = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+					Thread thread = new Thread(runnable, "ConfigUtil Encoder #" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Returns a future of the encoding of {@code src} which the caller has to release once it completes. The future
+	 * completes exceptionally if encoding fails or the executor rejects it. Changes to {@code src} after this call
+	 * returned don't affect the encoding.
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<ByteBuf> encode(T src) throws ReflectiveOperationException {
+		CompletableFuture<ByteBuf> future = new CompletableFuture<>();
+		Encoding<T> encoding;
+		synchronized (this) {
+			if (pending != null && EqualsUtil.valueEquals((Class<T>) src.getClass(), pending.snapshot, src,
+					ConfigUtil.SYNC_FIELDS)) {
+				pending.waiters.add(future);
+				return future;
+			}
+			encoding = new Encoding<>(CopyUtil.copy(src, ConfigUtil.SYNC_FIELDS));
+			encoding.waiters.add(future);
+			pending = encoding;
+		}
+		try {
+			executor.execute(() -> run(encoding));
+		} catch (RejectedExecutionException e) {
+			complete(encoding, null, e);
+		}
+		return future;
+	}
+
+	private void run(Encoding<T> encoding) {
+		ByteBuf buffer;
+		try {
+			buffer = ConfigUtil.writeServerSettings(encoding.snapshot, allocator, format);
+		} catch (ReflectiveOperationException | RuntimeException | Error e) {
+			complete(encoding, null, e);
+			return;
+		}
+		complete(encoding, buffer, null);
+	}
+
+	/**
+	 * No waiters are added once the encoding isn't pending anymore, so the list can be used outside the lock.
+	 */
+	private void complete(Encoding<T> encoding, @Nullable ByteBuf buffer, @Nullable Throwable error) {
+		synchronized (this) {
+			if (pending == encoding) {
+				pending = null;
+			}
+		}
+		if (buffer == null) {
+			for (CompletableFuture<ByteBuf> waiter : encoding.waiters) {
+				waiter.completeExceptionally(error);
+			}
+			return;
+		}
+		try {
+			ByteBuf readOnly = buffer.asReadOnly();
+			for (CompletableFuture<ByteBuf> waiter : encoding.waiters) {
+				ByteBuf duplicate = readOnly.retainedDuplicate();
+				if (!waiter.complete(duplicate)) {
+					duplicate.release();
+				}
+			}
+		} finally {
+			buffer.release();
+		}
+	}
+
+	private static final class Encoding<T> {
+
+		private final T snapshot;
+		private final List<CompletableFuture<ByteBuf>> waiters = new ArrayList<>();
+
+		private Encoding(T snapshot) {
+			this.snapshot = snapshot;
+		}
+
+	}
+
+}
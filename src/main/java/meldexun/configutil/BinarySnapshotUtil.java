@@ -0,0 +1,241 @@
+package meldexun.configutil;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Persists config objects as binary snapshots in the {@link ByteBufUtil} format, so they can be loaded at startup
+ * without parsing the text config they were loaded from. A snapshot starts with a header of the magic number, the
+ * snapshot version, the {@link #fingerprint(Class, Predicate) schema fingerprint} and the
+ * {@link #hash(Path) hash of the source file}, followed by the {@link WireFormat} header and the payload. Snapshots
+ * whose header doesn't match are ignored and replaced.
+ */
+public class BinarySnapshotUtil {
+
+	private static final Logger LOGGER = LogManager.getLogger();
+	private static final int MAGIC = 0x43554253;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+
+	/**
+	 * Hashes the names, declared types and {@link ByteBufUtil.NonNull} markers of the fields in the plans of
+	 * {@code type} and of all types reachable from it, as well as the constants of enums. It changes whenever a snapshot
+	 * written before couldn't be read correctly anymore.
+	 */
+	public static long fingerprint(Class<?> type, @Nullable Predicate<Field> predicate) {
+		StringBuilder sb = new StringBuilder();
+		appendSchema(sb, type, predicate, new HashSet<>());
+		long hash = 0xCBF29CE484222325L;
+		for (byte b : sb.toString().getBytes(StandardCharsets.UTF_8)) {
+			hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+		}
+		return hash;
+	}
+
+	private static void appendSchema(StringBuilder sb, Type type, @Nullable Predicate<Field> predicate,
+			Set<Class<?>> visited) {
+		if (type instanceof ParameterizedType) {
+			for (Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+				appendSchema(sb, argument, predicate, visited);
+			}
+			return;
+		}
+		if (!(type instanceof Class)) {
+			return;
+		}
+		Class<?> c = (Class<?>) type;
+		while (c.isArray()) {
+			c = c.getComponentType();
+		}
+		if (c.isPrimitive() || FieldPlan.Kind.ofBoxed(c) != null || c == String.class || !visited.add(c)) {
+			return;
+		}
+		sb.append(c.getName()).append('{');
+		if (Enum.class.isAssignableFrom(c)) {
+			for (Object constant : ValueType.enumConstants(c)) {
+				sb.append(((Enum<?>) constant).name()).append(',');
+			}
+		} else if (ByteBufUtil.getSerializer(c) == null && !Collection.class.isAssignableFrom(c)
+				&& !Map.class.isAssignableFrom(c)) {
+			FieldPlan plan = FieldPlan.get(c, predicate);
+			for (int i = 0; i < plan.size(); i++) {
+				Field field = plan.get(i).field();
+				sb.append(field.getName()).append(':').append(field.getGenericType().getTypeName());
+				// non-null fields have no bit in the null bitmap
+				sb.append(plan.get(i).isNonNull() ? "!;" : ";");
+			}
+			for (int i = 0; i < plan.size(); i++) {
+				appendSchema(sb, plan.get(i).field().getGenericType(), predicate, visited);
+			}
+		}
+		sb.append('}');
+	}
+
+	/**
+	 * Returns a hash of the size and content of {@code source}. The file isn't mapped, so it can still be rewritten
+	 * afterwards on every platform.
+	 */
+	public static long hash(Path source) throws IOException {
+		try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+			CRC32 crc = new CRC32();
+			ByteBuffer chunk = ByteBuffer.allocate(8192);
+			while (channel.read(chunk) >= 0) {
+				chunk.flip();
+				crc.update(chunk);
+				chunk.clear();
+			}
+			return channel.size() << 32 | crc.getValue();
+		}
+	}
+
+	/**
+	 * Writes the snapshot to a temporary file next to {@code snapshot}, forces it to the storage device and moves it
+	 * into place, so readers never see a partially written snapshot, even after a crash.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> void write(Path snapshot, T src, long sourceHash, @Nullable Predicate<Field> predicate,
+			WireFormat format) throws IOException, ReflectiveOperationException {
+		if (format.has(WireFormat.Feature.DELTA) || format.has(WireFormat.Feature.COMPRESSION)) {
+			throw new IllegalArgumentException("Unsupported format for snapshots: " + format);
+		}
+		Class<T> type = (Class<T>) src.getClass();
+		ByteBuf buffer = Unpooled.buffer(HEADER_SIZE + 1 + SizeUtil.sizeOf(type, src, predicate, format));
+		buffer.writeInt(MAGIC);
+		buffer.writeInt(VERSION);
+		buffer.writeLong(fingerprint(type, predicate));
+		buffer.writeLong(sourceHash);
+		format.writeHeader(buffer);
+		ByteBufUtil.write(type, src, buffer, predicate, format);
+
+		Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer data = buffer.nioBuffer();
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+			channel.force(true);
+		}
+		try {
+			Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Reads the snapshot into {@code dest} if it exists and its header matches. Returns {@code false} without touching
+	 * {@code dest} otherwise. The payload is decoded into a new instance whose fields are only moved into {@code dest}
+	 * once decoding succeeded. A snapshot that can't be decoded is deleted.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> boolean read(Path snapshot, T dest, long sourceHash, @Nullable Predicate<Field> predicate)
+			throws IOException, ReflectiveOperationException {
+		ByteBuf buffer;
+		try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size <= HEADER_SIZE || size > Integer.MAX_VALUE) {
+				return false;
+			}
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0) {
+					return false;
+				}
+			}
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION
+					|| header.getLong() != fingerprint(dest.getClass(), predicate)
+					|| header.getLong() != sourceHash) {
+				return false;
+			}
+			// read into the heap instead of mapping the file, a mapping is only released once it is garbage collected
+			// and keeps the snapshot from being deleted or replaced on some platforms until then
+			buffer = Unpooled.buffer((int) size - HEADER_SIZE);
+			while (buffer.isWritable()) {
+				if (buffer.writeBytes(channel, buffer.writableBytes()) < 0) {
+					return false;
+				}
+			}
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+		Class<T> type = (Class<T>) dest.getClass();
+		T decoded;
+		try {
+			WireFormat format = WireFormat.readHeader(buffer);
+			decoded = ByteBufUtil.read(type, buffer, predicate, format);
+			if (decoded == null) {
+				throw new IllegalStateException("Snapshot contains null");
+			}
+			if (buffer.isReadable()) {
+				throw new IllegalStateException("Trailing bytes: " + buffer.readableBytes());
+			}
+		} catch (RuntimeException | ReflectiveOperationException e) {
+			LOGGER.warn("Discarding corrupt snapshot {}", snapshot, e);
+			try {
+				Files.deleteIfExists(snapshot);
+			} catch (IOException e1) {
+				LOGGER.warn("Failed to delete snapshot {}", snapshot, e1);
+			}
+			return false;
+		}
+		FieldPlan plan = FieldPlan.get(type, predicate);
+		FieldAccessor.Backend backend = CopyUtil.getAccessorBackend();
+		for (int i = 0; i < plan.size(); i++) {
+			plan.get(i).accessor(backend).copy(decoded, dest);
+		}
+		return true;
+	}
+
+	/**
+	 * Loads {@code dest} from {@code snapshot} if it was written from the current content of {@code source} and the
+	 * current schema. Otherwise loads it with {@code textLoader} and writes a new snapshot. Failing to write the
+	 * snapshot is logged, the next load falls back to the text config again.
+	 */
+	public static <T> void load(Path source, Path snapshot, T dest, @Nullable Predicate<Field> predicate,
+			WireFormat format, TextLoader<T> textLoader) throws IOException, ReflectiveOperationException {
+		long sourceHash = hash(source);
+		if (read(snapshot, dest, sourceHash, predicate)) {
+			return;
+		}
+		textLoader.load(source, dest);
+		try {
+			write(snapshot, dest, sourceHash, predicate, format);
+		} catch (IOException | RuntimeException | ReflectiveOperationException e) {
+			LOGGER.warn("Failed to write snapshot {}", snapshot, e);
+		}
+	}
+
+	public interface TextLoader<T> {
+
+		void load(Path source, T dest) throws IOException;
+
+	}
+
+}
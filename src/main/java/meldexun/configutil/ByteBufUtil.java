@@ -1,24 +1,35 @@
 package meldexun.configutil;
 
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.nio.charset.StandardCharsets;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
 
 import io.netty.buffer.ByteBuf;
 
+/**
+ * Serializes objects field by field. Besides objects and arrays, enums are written as their ordinal and collections
+ * and maps as their size followed by their elements; the element types of collections and maps are taken from the
+ * generic signature of the declaring field. Enum sets and the keys of enum maps are written as bit sets.
+ */
 public class ByteBufUtil {
 
-	private static final Map<Class<?>, Serializer<?>> SERIALIZERS = new HashMap<>();
+	private static final ClassRegistry<Serializer<?>> SERIALIZERS = new ClassRegistry<>();
+	private static final Set<Serializer<?>> BUILT_IN_SERIALIZERS = ConcurrentHashMap.newKeySet();
 	static {
 		registerSerializer(ByteBuf::writeBoolean, ByteBuf::readBoolean, boolean.class, Boolean.class);
 		registerSerializer(ByteBufUtil::writeByte, ByteBuf::readByte, byte.class, Byte.class);
@@ -29,6 +40,44 @@ public class ByteBufUtil {
 		registerSerializer(ByteBuf::writeDouble, ByteBuf::readDouble, double.class, Double.class);
 		registerSerializer(ByteBufUtil::writeChar, ByteBuf::readChar, char.class, Character.class);
 		registerSerializer(ByteBufUtil::writeString, ByteBufUtil::readString, String.class);
+		for (Class<?> type : new Class<?>[] { Boolean.class, Byte.class, Short.class, Integer.class, Long.class,
+				Float.class, Double.class, Character.class, String.class }) {
+			BUILT_IN_SERIALIZERS.add(SERIALIZERS.get(type));
+		}
+	}
+
+	private static final Set<Field> NON_NULL_FIELDS = ConcurrentHashMap.newKeySet();
+	private static final int MAX_SCRATCH_SIZE = 65536;
+	private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+
+	private static volatile Engine engine = Engine.REFLECTION;
+	private static volatile Instrumentation instrumentation = Instrumentation.NONE;
+
+	public static void setEngine(Engine engine) {
+		ByteBufUtil.engine = engine;
+	}
+
+	public static Engine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Whether {@link Engine#BYTECODE} has a generated serializer for {@code type}. Generation failures are logged and
+	 * fall back to reflection.
+	 */
+	public static boolean hasGeneratedSerializer(Class<?> type, @Nullable Predicate<Field> predicate) {
+		return SerializerGenerator.get(FieldPlan.get(type, predicate), predicate) != null;
+	}
+
+	/**
+	 * Takes effect for write and read calls started afterwards.
+	 */
+	public static void setInstrumentation(@Nullable Instrumentation instrumentation) {
+		ByteBufUtil.instrumentation = instrumentation != null ? instrumentation : Instrumentation.NONE;
+	}
+
+	public static Instrumentation getInstrumentation() {
+		return instrumentation;
 	}
 
 	private static void writeByte(ByteBuf buf, byte b) {
@@ -44,20 +93,121 @@ public class ByteBufUtil {
 	}
 
 	private static void writeString(ByteBuf buf, String string) {
-		byte[] data = string.getBytes(StandardCharsets.UTF_8);
-		buf.writeInt(data.length);
-		buf.writeBytes(data);
+		int length = utf8Length(string);
+		buf.writeInt(length);
+		writeUtf8(buf, string, length);
 	}
 
 	private static String readString(ByteBuf buf) {
-		return buf.readCharSequence(buf.readInt(), StandardCharsets.UTF_8).toString();
+		return readUtf8(buf, buf.readInt());
+	}
+
+	/**
+	 * Returns the length of the UTF-8 encoding of {@code string} as produced by {@link String#getBytes}, where unpaired
+	 * surrogates are replaced by {@code '?'}.
+	 */
+	static int utf8Length(String string) {
+		int chars = string.length();
+		int length = chars;
+		for (int i = 0; i < chars; i++) {
+			char c = string.charAt(i);
+			if (c < 0x80) {
+				continue;
+			}
+			if (c < 0x800) {
+				length++;
+			} else if (!Character.isSurrogate(c)) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < chars
+					&& Character.isLowSurrogate(string.charAt(i + 1))) {
+				// a pair takes 4 bytes for 2 chars
+				length += 2;
+				i++;
+			}
+		}
+		return length;
 	}
 
+	/**
+	 * Encodes {@code string} directly into the buffer. {@code length} has to be {@link #utf8Length(String)}.
+	 */
+	static void writeUtf8(ByteBuf buf, String string, int length) {
+		buf.ensureWritable(length);
+		int index = buf.writerIndex();
+		int chars = string.length();
+		for (int i = 0; i < chars; i++) {
+			char c = string.charAt(i);
+			if (c < 0x80) {
+				buf.setByte(index++, c);
+			} else if (c < 0x800) {
+				buf.setByte(index++, 0xC0 | (c >> 6));
+				buf.setByte(index++, 0x80 | (c & 0x3F));
+			} else if (!Character.isSurrogate(c)) {
+				buf.setByte(index++, 0xE0 | (c >> 12));
+				buf.setByte(index++, 0x80 | ((c >> 6) & 0x3F));
+				buf.setByte(index++, 0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < chars
+					&& Character.isLowSurrogate(string.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, string.charAt(++i));
+				buf.setByte(index++, 0xF0 | (codePoint >> 18));
+				buf.setByte(index++, 0x80 | ((codePoint >> 12) & 0x3F));
+				buf.setByte(index++, 0x80 | ((codePoint >> 6) & 0x3F));
+				buf.setByte(index++, 0x80 | (codePoint & 0x3F));
+			} else {
+				buf.setByte(index++, '?');
+			}
+		}
+		buf.writerIndex(index);
+	}
+
+	/**
+	 * Decodes from the backing array if there is one and from a per-thread scratch array otherwise. ASCII-only content
+	 * skips the charset decoder.
+	 */
+	@SuppressWarnings("deprecation")
+	static String readUtf8(ByteBuf buf, int length) {
+		checkReadable(buf, length);
+		byte[] array;
+		int offset;
+		if (buf.hasArray()) {
+			array = buf.array();
+			offset = buf.arrayOffset() + buf.readerIndex();
+		} else {
+			array = scratch(length);
+			offset = 0;
+			buf.getBytes(buf.readerIndex(), array, 0, length);
+		}
+		buf.skipBytes(length);
+		for (int i = offset; i < offset + length; i++) {
+			if (array[i] < 0) {
+				return new String(array, offset, length, StandardCharsets.UTF_8);
+			}
+		}
+		return new String(array, 0, offset, length);
+	}
+
+	private static byte[] scratch(int length) {
+		byte[] scratch = SCRATCH.get();
+		if (scratch.length >= length) {
+			return scratch;
+		}
+		if (length > MAX_SCRATCH_SIZE) {
+			return new byte[length];
+		}
+		scratch = new byte[Math.min(Integer.highestOneBit(length - 1) << 1, MAX_SCRATCH_SIZE)];
+		SCRATCH.set(scratch);
+		return scratch;
+	}
+
+	/**
+	 * Serializers also apply to subclasses and implementations of the given types unless a more specific one is
+	 * registered. Can be called concurrently with serialization.
+	 */
 	@SafeVarargs
 	public static <T> void registerSerializer(BiConsumer<ByteBuf, T> writer, Function<ByteBuf, T> reader,
 			Class<T>... types) {
 		for (Class<T> type : types) {
-			SERIALIZERS.put(type, new Serializer<T>() {
+			SERIALIZERS.register(type, new Serializer<T>() {
 
 				@Override
 				public void write(ByteBuf buffer, T t) {
@@ -73,107 +223,548 @@ public class ByteBufUtil {
 		}
 	}
 
+	/**
+	 * Has to be called before the declaring class is serialized for the first time.
+	 */
+	public static void registerNonNullField(Field field) {
+		NON_NULL_FIELDS.add(field);
+	}
+
+	static boolean isNonNull(Field field) {
+		return field.isAnnotationPresent(NonNull.class) || NON_NULL_FIELDS.contains(field);
+	}
+
+	/**
+	 * Whether {@code serializer} is the initially registered one for a boxed primitive or {@link String}.
+	 */
+	static boolean isBuiltIn(Serializer<?> serializer) {
+		return BUILT_IN_SERIALIZERS.contains(serializer);
+	}
+
 	@SuppressWarnings("unchecked")
-	private static <T> Serializer<T> getSerializer(Class<T> type) {
+	static <T> Serializer<T> getSerializer(Class<T> type) {
 		return (Serializer<T>) SERIALIZERS.get(type);
 	}
 
-	@SuppressWarnings("unchecked")
 	public static <T> void write(T src, ByteBuf buffer, @Nullable Predicate<Field> predicate)
 			throws ReflectiveOperationException {
-		if (src == null) {
-			buffer.writeBoolean(false);
-			return;
-		}
-		write((Class<T>) src.getClass(), src, buffer, predicate);
+		write(src, buffer, predicate, WireFormat.DEFAULT);
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <T> void write(T src, ByteBuf buffer, @Nullable Predicate<Field> predicate, WireFormat format)
+			throws ReflectiveOperationException {
+		write((Class<T>) (src != null ? src.getClass() : Object.class), src, buffer, predicate, format);
 	}
 
 	public static <T> void write(Class<T> type, T src, ByteBuf buffer, @Nullable Predicate<Field> predicate)
 			throws ReflectiveOperationException {
+		write(type, src, buffer, predicate, WireFormat.DEFAULT);
+	}
+
+	public static <T> void write(Class<T> type, T src, ByteBuf buffer, @Nullable Predicate<Field> predicate,
+			WireFormat format) throws ReflectiveOperationException {
+		SerializationContext context = new SerializationContext(predicate, format);
+		context.writeFieldTable(type, buffer);
+		write(type, src, buffer, context);
+	}
+
+	static <T> void write(Class<T> type, T src, ByteBuf buffer, SerializationContext context)
+			throws ReflectiveOperationException {
 		buffer.writeBoolean(src != null);
 		if (src == null) {
 			return;
 		}
 
+		writeValue(type, src, buffer, context);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> void writeValue(Class<T> type, T src, ByteBuf buffer, SerializationContext context)
+			throws ReflectiveOperationException {
 		Serializer<T> serializer = getSerializer(type);
 		if (serializer != null) {
-			serializer.write(buffer, src);
+			if (context.format.isDefault() || !isBuiltIn(serializer)) {
+				serializer.write(buffer, src);
+			} else if (type == String.class) {
+				context.writeString(buffer, (String) src);
+			} else {
+				writeBoxed(FieldPlan.Kind.ofBoxed(type), src, buffer, context);
+			}
 			return;
 		}
 
 		if (type.isArray()) {
-			writeArray(type, src, buffer, predicate);
+			if (context.identity && writeBackReference(src, buffer, context)) {
+				return;
+			}
+			int position = context.instrumented ? context.writePosition(buffer) : 0;
+			writeArray(type, src, buffer, context);
+			if (context.instrumented) {
+				context.instrumentation.arrayWritten(type, Array.getLength(src),
+						context.writePosition(buffer) - position);
+			}
+			return;
+		}
+
+		if (Enum.class.isAssignableFrom(type)) {
+			VarIntUtil.writeVarInt(buffer, ((Enum<?>) src).ordinal());
+			return;
+		}
+
+		if (Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)) {
+			writeValue(ValueType.of(type), src, buffer, context);
+			return;
+		}
+
+		if (context.identity && writeBackReference(src, buffer, context)) {
+			return;
+		}
+		writeObject(type, src, buffer, context);
+	}
+
+	/**
+	 * Writes the back-reference of {@code src} and returns {@code true} if it was written before. Otherwise writes 0
+	 * and the caller writes the value.
+	 */
+	private static boolean writeBackReference(Object src, ByteBuf buffer, SerializationContext context) {
+		int reference = context.backReference(src);
+		VarIntUtil.writeVarInt(buffer, reference);
+		return reference != 0;
+	}
+
+	static void writeReference(ValueType type, @Nullable Object src, ByteBuf buffer, SerializationContext context)
+			throws ReflectiveOperationException {
+		buffer.writeBoolean(src != null);
+		if (src != null) {
+			writeValue(type, src, buffer, context);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	static <R> void writeValue(ValueType type, Object src, ByteBuf buffer, SerializationContext context)
+			throws ReflectiveOperationException {
+		if (type.enumConstants != null) {
+			VarIntUtil.writeVarInt(buffer, ((Enum<?>) src).ordinal());
+			return;
+		}
+		if (type.category == ValueType.Category.VALUE || getSerializer(type.type) != null) {
+			writeValue((Class<R>) type.type, (R) src, buffer, context);
+			return;
+		}
+		if (context.identity && writeBackReference(src, buffer, context)) {
 			return;
 		}
+		switch (type.category) {
+		case ENUM_SET:
+			writeEnumBits(type.element(), (Set<?>) src, buffer);
+			break;
+		case ENUM_MAP: {
+			Map<?, ?> map = (Map<?, ?>) src;
+			writeEnumBits(type.element(), map.keySet(), buffer);
+			ValueType valueType = type.value();
+			for (Object value : map.values()) {
+				writeReference(valueType, value, buffer, context);
+				context.boundary(buffer);
+			}
+			break;
+		}
+		case COLLECTION: {
+			Collection<?> collection = (Collection<?>) src;
+			ValueType elementType = type.element();
+			context.writeLength(buffer, collection.size());
+			for (Object element : collection) {
+				writeReference(elementType, element, buffer, context);
+				context.boundary(buffer);
+			}
+			break;
+		}
+		default: {
+			Map<?, ?> map = (Map<?, ?>) src;
+			ValueType keyType = type.element();
+			ValueType valueType = type.value();
+			context.writeLength(buffer, map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				writeReference(keyType, entry.getKey(), buffer, context);
+				writeReference(valueType, entry.getValue(), buffer, context);
+				context.boundary(buffer);
+			}
+			break;
+		}
+		}
+	}
+
+	private static void writeEnumBits(ValueType elementType, Set<?> constants, ByteBuf buffer) {
+		int bitmap = buffer.writerIndex();
+		buffer.writeZero((ValueType.enumConstants(elementType.type).length + 7) >> 3);
+		for (Object constant : constants) {
+			int ordinal = ((Enum<?>) constant).ordinal();
+			int index = bitmap + (ordinal >> 3);
+			buffer.setByte(index, buffer.getByte(index) | (1 << (ordinal & 7)));
+		}
+	}
 
-		writeObject(type, src, buffer, predicate);
+	private static void writeBoxed(FieldPlan.Kind kind, Object src, ByteBuf buffer, SerializationContext context) {
+		switch (kind) {
+		case BOOLEAN:
+			buffer.writeBoolean((Boolean) src);
+			break;
+		case BYTE:
+			buffer.writeByte((Byte) src);
+			break;
+		case SHORT:
+			context.writeShort(buffer, (Short) src);
+			break;
+		case INT:
+			context.writeInt(buffer, (Integer) src);
+			break;
+		case LONG:
+			context.writeLong(buffer, (Long) src);
+			break;
+		case FLOAT:
+			buffer.writeFloat((Float) src);
+			break;
+		case DOUBLE:
+			buffer.writeDouble((Double) src);
+			break;
+		case CHAR:
+			context.writeChar(buffer, (Character) src);
+			break;
+		default:
+			throw new IllegalArgumentException(kind.toString());
+		}
 	}
 
 	@SuppressWarnings("unchecked")
-	private static <T, R> void writeArray(Class<T> type, T src, ByteBuf buffer, @Nullable Predicate<Field> predicate)
+	private static <T, R> void writeArray(Class<T> type, T src, ByteBuf buffer, SerializationContext context)
 			throws ReflectiveOperationException {
 		Class<R> componentType = (Class<R>) type.getComponentType();
+		FieldPlan.Kind componentKind = FieldPlan.Kind.of(componentType);
 		int length = Array.getLength(src);
-		buffer.writeInt(length);
+		context.writeLength(buffer, length);
+		if (componentKind.isPrimitive()) {
+			if (context.compact) {
+				writeCompactPrimitiveArray(componentKind, src, length, buffer, context);
+			} else {
+				writePrimitiveArray(componentKind, src, length, buffer);
+			}
+			return;
+		}
+		Object[] array = (Object[]) src;
+		if (context.nullBitmap) {
+			writeNullBitmap(array, buffer);
+			for (int i = 0; i < length; i++) {
+				if (array[i] != null) {
+					writeValue(componentType, (R) array[i], buffer, context);
+					context.boundary(buffer);
+				}
+			}
+			return;
+		}
 		for (int i = 0; i < length; i++) {
-			writeComponent(componentType, src, i, buffer, predicate);
+			write(componentType, (R) array[i], buffer, context);
+			context.boundary(buffer);
 		}
 	}
 
-	@SuppressWarnings("unchecked")
-	private static <T, R> void writeComponent(Class<R> componentType, T src, int index, ByteBuf buffer,
-			@Nullable Predicate<Field> predicate) throws ReflectiveOperationException {
-		if (componentType == boolean.class) {
-			buffer.writeBoolean(Array.getBoolean(src, index));
-		} else if (componentType == byte.class) {
-			buffer.writeByte(Array.getByte(src, index));
-		} else if (componentType == short.class) {
-			buffer.writeShort(Array.getShort(src, index));
-		} else if (componentType == int.class) {
-			buffer.writeInt(Array.getInt(src, index));
-		} else if (componentType == long.class) {
-			buffer.writeLong(Array.getLong(src, index));
-		} else if (componentType == float.class) {
-			buffer.writeFloat(Array.getFloat(src, index));
-		} else if (componentType == double.class) {
-			buffer.writeDouble(Array.getDouble(src, index));
-		} else if (componentType == char.class) {
-			buffer.writeChar(Array.getChar(src, index));
-		} else {
-			write(componentType, (R) Array.get(src, index), buffer, predicate);
+	private static void writeNullBitmap(Object[] array, ByteBuf buffer) {
+		int bits = 0;
+		for (int i = 0; i < array.length; i++) {
+			if (array[i] != null) {
+				bits |= 1 << (i & 7);
+			}
+			if ((i & 7) == 7) {
+				buffer.writeByte(bits);
+				bits = 0;
+			}
+		}
+		if ((array.length & 7) != 0) {
+			buffer.writeByte(bits);
+		}
+	}
+
+	private static void writePrimitiveArray(FieldPlan.Kind componentKind, Object src, int length, ByteBuf buffer) {
+		if (componentKind == FieldPlan.Kind.BYTE) {
+			buffer.writeBytes((byte[]) src);
+			return;
+		}
+		int size = length * componentKind.size();
+		buffer.ensureWritable(size);
+		int index = buffer.writerIndex();
+		switch (componentKind) {
+		case BOOLEAN: {
+			boolean[] array = (boolean[]) src;
+			for (int i = 0; i < length; i++) {
+				buffer.setBoolean(index + i, array[i]);
+			}
+			break;
+		}
+		case SHORT: {
+			short[] array = (short[]) src;
+			for (int i = 0; i < length; i++) {
+				buffer.setShort(index + (i << 1), array[i]);
+			}
+			break;
+		}
+		case INT: {
+			int[] array = (int[]) src;
+			for (int i = 0; i < length; i++) {
+				buffer.setInt(index + (i << 2), array[i]);
+			}
+			break;
+		}
+		case LONG: {
+			long[] array = (long[]) src;
+			for (int i = 0; i < length; i++) {
+				buffer.setLong(index + (i << 3), array[i]);
+			}
+			break;
+		}
+		case FLOAT: {
+			float[] array = (float[]) src;
+			for (int i = 0; i < length; i++) {
+				buffer.setFloat(index + (i << 2), array[i]);
+			}
+			break;
+		}
+		case DOUBLE: {
+			double[] array = (double[]) src;
+			for (int i = 0; i < length; i++) {
+				buffer.setDouble(index + (i << 3), array[i]);
+			}
+			break;
+		}
+		case CHAR: {
+			char[] array = (char[]) src;
+			for (int i = 0; i < length; i++) {
+				buffer.setChar(index + (i << 1), array[i]);
+			}
+			break;
+		}
+		default:
+			throw new IllegalArgumentException(componentKind.toString());
+		}
+		buffer.writerIndex(index + size);
+	}
+
+	private static void writeCompactPrimitiveArray(FieldPlan.Kind componentKind, Object src, int length,
+			ByteBuf buffer, SerializationContext context) {
+		switch (componentKind) {
+		case BOOLEAN: {
+			boolean[] array = (boolean[]) src;
+			int bits = 0;
+			for (int i = 0; i < length; i++) {
+				if (array[i]) {
+					bits |= 1 << (i & 7);
+				}
+				if ((i & 7) == 7) {
+					buffer.writeByte(bits);
+					bits = 0;
+				}
+			}
+			if ((length & 7) != 0) {
+				buffer.writeByte(bits);
+			}
+			break;
+		}
+		case SHORT: {
+			short[] array = (short[]) src;
+			for (int i = 0; i < length; i++) {
+				context.writeShort(buffer, array[i]);
+			}
+			break;
+		}
+		case INT: {
+			int[] array = (int[]) src;
+			for (int i = 0; i < length; i++) {
+				context.writeInt(buffer, array[i]);
+			}
+			break;
+		}
+		case LONG: {
+			long[] array = (long[]) src;
+			for (int i = 0; i < length; i++) {
+				context.writeLong(buffer, array[i]);
+			}
+			break;
+		}
+		case CHAR: {
+			char[] array = (char[]) src;
+			for (int i = 0; i < length; i++) {
+				context.writeChar(buffer, array[i]);
+			}
+			break;
+		}
+		default:
+			writePrimitiveArray(componentKind, src, length, buffer);
+			break;
+		}
+	}
+
+	private static <T> void writeObject(Class<T> type, T src, ByteBuf buffer, SerializationContext context)
+			throws ReflectiveOperationException {
+		FieldPlan plan = FieldPlan.get(type, context.predicate);
+		if (engine == Engine.BYTECODE && context.allowsGenerated()) {
+			GeneratedSerializer<T> serializer = SerializerGenerator.get(plan, context.predicate);
+			if (serializer != null) {
+				serializer.write(buffer, src, context);
+				return;
+			}
+		}
+		long start = context.instrumented ? System.nanoTime() : 0L;
+		int position = context.instrumented ? context.writePosition(buffer) : 0;
+		if (context.tagged) {
+			writeTaggedFields(src, plan, buffer, context);
+			if (context.instrumented) {
+				context.instrumentation.objectWritten(type, context.writePosition(buffer) - position,
+						System.nanoTime() - start);
+			}
+			return;
+		}
+		if (context.compact && plan.booleanCount() > 0) {
+			writePackedBooleans(src, plan, buffer);
+		}
+		if (context.nullBitmap && plan.nullableCount() > 0) {
+			writeNullBitmap(src, plan, buffer);
+		}
+		for (int i = 0; i < plan.size(); i++) {
+			FieldPlan.Entry entry = plan.get(i);
+			if (context.compact && entry.kind() == FieldPlan.Kind.BOOLEAN) {
+				continue;
+			}
+			int fieldPosition = context.instrumented ? context.writePosition(buffer) : 0;
+			if (context.nullBitmap && !entry.kind().isPrimitive()) {
+				writeNullableField(src, entry, buffer, context);
+			} else {
+				writeField(src, entry, buffer, context);
+			}
+			if (context.instrumented) {
+				context.instrumentation.fieldWritten(entry.field(), context.writePosition(buffer) - fieldPosition);
+			}
+			context.boundary(buffer);
+		}
+		if (context.instrumented) {
+			context.instrumentation.objectWritten(type, context.writePosition(buffer) - position,
+					System.nanoTime() - start);
 		}
 	}
 
-	private static <T> void writeObject(Class<T> type, T src, ByteBuf buffer, @Nullable Predicate<Field> predicate)
+	/**
+	 * Writes the number of fields followed by the id, length and value of each field. Fields are written like in the
+	 * default layout, only booleans aren't packed and null flags aren't collected in a bitmap. The length of a
+	 * primitive is known up front, for references a padded varint is reserved and filled in afterwards, so nested
+	 * values never have to be moved.
+	 */
+	private static void writeTaggedFields(Object src, FieldPlan plan, ByteBuf buffer, SerializationContext context)
 			throws ReflectiveOperationException {
-		StreamUtil.forEachUnchecked(streamFields(type, predicate), field -> {
-			field.setAccessible(true);
-			writeField(src, field, buffer, predicate);
-		}, ReflectiveOperationException.class);
+		VarIntUtil.writeVarInt(buffer, plan.size());
+		for (int i = 0; i < plan.size(); i++) {
+			FieldPlan.Entry entry = plan.get(i);
+			VarIntUtil.writeVarInt(buffer, context.fieldId(entry));
+			int length;
+			if (entry.kind().isPrimitive()) {
+				length = SizeUtil.primitiveFieldSize(entry, src, context);
+				VarIntUtil.writeVarInt(buffer, length);
+				writeField(src, entry, buffer, context);
+			} else {
+				int lengthIndex = buffer.writerIndex();
+				buffer.writeZero(VarIntUtil.PADDED_VAR_INT_SIZE);
+				writeField(src, entry, buffer, context);
+				length = buffer.writerIndex() - lengthIndex - VarIntUtil.PADDED_VAR_INT_SIZE;
+				VarIntUtil.setPaddedVarInt(buffer, lengthIndex, length);
+			}
+			if (context.instrumented) {
+				context.instrumentation.fieldWritten(entry.field(), length);
+			}
+		}
+	}
+
+	private static void writeNullBitmap(Object src, FieldPlan plan, ByteBuf buffer)
+			throws ReflectiveOperationException {
+		int bits = 0;
+		int count = 0;
+		for (int i = 0; i < plan.size(); i++) {
+			FieldPlan.Entry entry = plan.get(i);
+			if (!entry.isNullable()) {
+				continue;
+			}
+			if (entry.field().get(src) != null) {
+				bits |= 1 << (count & 7);
+			}
+			if ((++count & 7) == 0) {
+				buffer.writeByte(bits);
+				bits = 0;
+			}
+		}
+		if ((count & 7) != 0) {
+			buffer.writeByte(bits);
+		}
 	}
 
 	@SuppressWarnings("unchecked")
-	private static <T, R> void writeField(T src, Field field, ByteBuf buffer, @Nullable Predicate<Field> predicate)
+	private static <R> void writeNullableField(Object src, FieldPlan.Entry entry, ByteBuf buffer,
+			SerializationContext context) throws ReflectiveOperationException {
+		R value = (R) entry.field().get(src);
+		if (value != null) {
+			writeValue(entry.valueType(), value, buffer, context);
+		} else if (entry.isNonNull()) {
+			throw new NullPointerException("Field " + entry.field() + " is declared non-null");
+		}
+	}
+
+	private static void writePackedBooleans(Object src, FieldPlan plan, ByteBuf buffer)
+			throws ReflectiveOperationException {
+		int bits = 0;
+		int count = 0;
+		for (int i = 0; i < plan.size(); i++) {
+			FieldPlan.Entry entry = plan.get(i);
+			if (entry.kind() != FieldPlan.Kind.BOOLEAN) {
+				continue;
+			}
+			if (entry.field().getBoolean(src)) {
+				bits |= 1 << (count & 7);
+			}
+			if ((++count & 7) == 0) {
+				buffer.writeByte(bits);
+				bits = 0;
+			}
+		}
+		if ((count & 7) != 0) {
+			buffer.writeByte(bits);
+		}
+	}
+
+	static <T> void writeField(T src, FieldPlan.Entry entry, ByteBuf buffer, SerializationContext context)
 			throws ReflectiveOperationException {
-		Class<R> fieldType = (Class<R>) field.getType();
-		if (fieldType == boolean.class) {
+		Field field = entry.field();
+		switch (entry.kind()) {
+		case BOOLEAN:
 			buffer.writeBoolean(field.getBoolean(src));
-		} else if (fieldType == byte.class) {
+			break;
+		case BYTE:
 			buffer.writeByte(field.getByte(src));
-		} else if (fieldType == short.class) {
-			buffer.writeShort(field.getShort(src));
-		} else if (fieldType == int.class) {
-			buffer.writeInt(field.getInt(src));
-		} else if (fieldType == long.class) {
-			buffer.writeLong(field.getLong(src));
-		} else if (fieldType == float.class) {
+			break;
+		case SHORT:
+			context.writeShort(buffer, field.getShort(src));
+			break;
+		case INT:
+			context.writeInt(buffer, field.getInt(src));
+			break;
+		case LONG:
+			context.writeLong(buffer, field.getLong(src));
+			break;
+		case FLOAT:
 			buffer.writeFloat(field.getFloat(src));
-		} else if (fieldType == double.class) {
+			break;
+		case DOUBLE:
 			buffer.writeDouble(field.getDouble(src));
-		} else if (fieldType == char.class) {
-			buffer.writeChar(field.getChar(src));
-		} else {
-			write(fieldType, (R) field.get(src), buffer, predicate);
+			break;
+		case CHAR:
+			context.writeChar(buffer, field.getChar(src));
+			break;
+		default:
+			writeReference(entry.valueType(), field.get(src), buffer, context);
+			break;
 		}
 	}
 
@@ -182,108 +773,584 @@ public class ByteBufUtil {
 		return read(type, null, buffer, predicate);
 	}
 
-	@SuppressWarnings("unchecked")
+	public static <T> T read(Class<T> type, ByteBuf buffer, @Nullable Predicate<Field> predicate, WireFormat format)
+			throws ReflectiveOperationException {
+		return read(type, null, buffer, predicate, format);
+	}
+
 	public static <T> T read(T dest, ByteBuf buffer, @Nullable Predicate<Field> predicate)
 			throws ReflectiveOperationException {
-		return read((Class<T>) dest.getClass(), dest, buffer, predicate);
+		return read(dest, buffer, predicate, WireFormat.DEFAULT);
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <T> T read(T dest, ByteBuf buffer, @Nullable Predicate<Field> predicate, WireFormat format)
+			throws ReflectiveOperationException {
+		return read((Class<T>) dest.getClass(), dest, buffer, predicate, format);
 	}
 
 	public static <T> T read(Class<T> type, @Nullable T dest, ByteBuf buffer, @Nullable Predicate<Field> predicate)
 			throws ReflectiveOperationException {
+		return read(type, dest, buffer, predicate, WireFormat.DEFAULT);
+	}
+
+	public static <T> T read(Class<T> type, @Nullable T dest, ByteBuf buffer, @Nullable Predicate<Field> predicate,
+			WireFormat format) throws ReflectiveOperationException {
+		SerializationContext context = new SerializationContext(predicate, format);
+		context.readFieldTable(buffer);
+		return read(type, dest, buffer, context);
+	}
+
+	static <T> T read(Class<T> type, @Nullable T dest, ByteBuf buffer, SerializationContext context)
+			throws ReflectiveOperationException {
 		if (!buffer.readBoolean()) {
 			return null;
 		}
 
+		return readValue(type, dest, buffer, context);
+	}
+
+	@SuppressWarnings("unchecked")
+	static <T> T readValue(Class<T> type, @Nullable T dest, ByteBuf buffer, SerializationContext context)
+			throws ReflectiveOperationException {
 		Serializer<T> serializer = getSerializer(type);
 		if (serializer != null) {
-			return serializer.read(buffer);
+			if (context.format.isDefault() || !isBuiltIn(serializer)) {
+				return serializer.read(buffer);
+			}
+			if (type == String.class) {
+				return (T) context.readString(buffer);
+			}
+			return (T) readBoxed(FieldPlan.Kind.ofBoxed(type), buffer, context);
+		}
+
+		if (context.identity && (type.isArray() || isObject(type))) {
+			int reference = VarIntUtil.readVarInt(buffer);
+			if (reference != 0) {
+				return (T) context.readBackReference(reference, type);
+			}
+			if (dest != null && context.wasRead(dest)) {
+				dest = null;
+			}
 		}
 
 		if (type.isArray()) {
-			return readArray(type, buffer, predicate);
+			int position = buffer.readerIndex();
+			T result = readArray(type, dest, buffer, context);
+			if (context.instrumented) {
+				context.instrumentation.arrayRead(type, Array.getLength(result), buffer.readerIndex() - position,
+						result == dest);
+			}
+			return result;
 		}
 
-		return readObject(type, dest, buffer, predicate);
+		if (Enum.class.isAssignableFrom(type)) {
+			return (T) readEnum(ValueType.enumConstants(type), buffer);
+		}
+
+		if (Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)) {
+			return (T) readValue(ValueType.of(type), dest, buffer, context);
+		}
+
+		return readObject(type, dest, buffer, context);
+	}
+
+	/**
+	 * Whether values of {@code type} are written field by field. Only valid for types without a serializer.
+	 */
+	private static boolean isObject(Class<?> type) {
+		return !type.isArray() && !Enum.class.isAssignableFrom(type) && !Collection.class.isAssignableFrom(type)
+				&& !Map.class.isAssignableFrom(type);
+	}
+
+	private static Object readEnum(Object[] constants, ByteBuf buffer) {
+		int ordinal = VarIntUtil.readVarInt(buffer);
+		if (ordinal < 0 || ordinal >= constants.length) {
+			throw new IllegalStateException(
+					"Invalid ordinal " + ordinal + " for " + constants.getClass().getComponentType().getName());
+		}
+		return constants[ordinal];
+	}
+
+	@Nullable
+	static Object readReference(ValueType type, @Nullable Object dest, ByteBuf buffer, SerializationContext context)
+			throws ReflectiveOperationException {
+		return buffer.readBoolean() ? readValue(type, dest, buffer, context) : null;
+	}
+
+	/**
+	 * Containers are refilled in place if {@code dest} can be reused, see {@link ValueType#reuseContainer(Object)}.
+	 * Elements of lists and values of enum maps are read into the elements and values they replace.
+	 */
+	@SuppressWarnings("unchecked")
+	static <R> Object readValue(ValueType type, @Nullable Object dest, ByteBuf buffer, SerializationContext context)
+			throws ReflectiveOperationException {
+		if (type.enumConstants != null) {
+			return readEnum(type.enumConstants, buffer);
+		}
+		if (type.category == ValueType.Category.VALUE || getSerializer(type.type) != null) {
+			return readValue((Class<R>) type.type, (R) dest, buffer, context);
+		}
+		if (context.identity) {
+			int reference = VarIntUtil.readVarInt(buffer);
+			if (reference != 0) {
+				return context.readBackReference(reference, type.type);
+			}
+			if (dest != null && context.wasRead(dest)) {
+				dest = null;
+			}
+		}
+		switch (type.category) {
+		case ENUM_SET: {
+			Object[] constants = ValueType.enumConstants(type.element().type);
+			checkReadable(buffer, (constants.length + 7L) >> 3);
+			Set<Object> result = (Set<Object>) (dest != null ? dest : type.newEnumSet());
+			if (context.identity) {
+				context.registerRead(result);
+			}
+			result.clear();
+			int bitmap = buffer.readerIndex();
+			buffer.skipBytes((constants.length + 7) >> 3);
+			for (int i = 0; i < constants.length; i++) {
+				if ((buffer.getByte(bitmap + (i >> 3)) & (1 << (i & 7))) != 0) {
+					result.add(constants[i]);
+				}
+			}
+			return result;
+		}
+		case ENUM_MAP: {
+			Object[] constants = ValueType.enumConstants(type.element().type);
+			checkReadable(buffer, (constants.length + 7L) >> 3);
+			Map<Object, Object> result = (Map<Object, Object>) (dest != null ? dest : type.newEnumMap());
+			if (context.identity) {
+				context.registerRead(result);
+			}
+			ValueType valueType = type.value();
+			int bitmap = buffer.readerIndex();
+			buffer.skipBytes((constants.length + 7) >> 3);
+			for (int i = 0; i < constants.length; i++) {
+				if ((buffer.getByte(bitmap + (i >> 3)) & (1 << (i & 7))) != 0) {
+					result.put(constants[i], readReference(valueType, result.get(constants[i]), buffer, context));
+				} else {
+					result.remove(constants[i]);
+				}
+			}
+			return result;
+		}
+		case COLLECTION: {
+			int size = context.readLength(buffer);
+			checkReadable(buffer, size);
+			Collection<Object> result = (Collection<Object>) type.reuseContainer(dest);
+			if (context.identity) {
+				context.registerRead(result);
+			}
+			ValueType elementType = type.element();
+			int reused = 0;
+			if (result instanceof List && result instanceof RandomAccess) {
+				List<Object> list = (List<Object>) result;
+				reused = Math.min(size, list.size());
+				for (int i = 0; i < reused; i++) {
+					list.set(i, readReference(elementType, list.get(i), buffer, context));
+				}
+				list.subList(reused, list.size()).clear();
+			} else {
+				result.clear();
+			}
+			for (int i = reused; i < size; i++) {
+				result.add(readReference(elementType, null, buffer, context));
+			}
+			return result;
+		}
+		default: {
+			int size = context.readLength(buffer);
+			checkReadable(buffer, size * 2L);
+			Map<Object, Object> result = (Map<Object, Object>) type.reuseContainer(dest);
+			if (context.identity) {
+				context.registerRead(result);
+			}
+			ValueType keyType = type.element();
+			ValueType valueType = type.value();
+			result.clear();
+			for (int i = 0; i < size; i++) {
+				Object key = readReference(keyType, null, buffer, context);
+				result.put(key, readReference(valueType, null, buffer, context));
+			}
+			return result;
+		}
+		}
+	}
+
+	private static Object readBoxed(FieldPlan.Kind kind, ByteBuf buffer, SerializationContext context) {
+		switch (kind) {
+		case BOOLEAN:
+			return buffer.readBoolean();
+		case BYTE:
+			return buffer.readByte();
+		case SHORT:
+			return context.readShort(buffer);
+		case INT:
+			return context.readInt(buffer);
+		case LONG:
+			return context.readLong(buffer);
+		case FLOAT:
+			return buffer.readFloat();
+		case DOUBLE:
+			return buffer.readDouble();
+		case CHAR:
+			return context.readChar(buffer);
+		default:
+			throw new IllegalArgumentException(kind.toString());
+		}
 	}
 
 	@SuppressWarnings("unchecked")
-	private static <T, R> T readArray(Class<T> type, ByteBuf buffer, @Nullable Predicate<Field> predicate)
+	private static <T, R> T readArray(Class<T> type, @Nullable T dest, ByteBuf buffer, SerializationContext context)
 			throws ReflectiveOperationException {
 		Class<R> componentType = (Class<R>) type.getComponentType();
-		int length = buffer.readInt();
-		T dest = (T) Array.newInstance(componentType, length);
+		FieldPlan.Kind componentKind = FieldPlan.Kind.of(componentType);
+		int length = context.readLength(buffer);
+		if (componentKind.isPrimitive()) {
+			checkReadable(buffer, minEncodedSize(componentKind, length, context));
+			T result = reuseArray(type, dest, length);
+			if (context.identity) {
+				context.registerRead(result);
+			}
+			if (context.compact) {
+				readCompactPrimitiveArray(componentKind, result, 0, length, buffer, context);
+			} else {
+				readPrimitiveArray(componentKind, result, 0, length, buffer);
+			}
+			return result;
+		}
+		checkReadable(buffer, context.nullBitmap ? (length + 7L) >> 3 : length);
+		T result = reuseArray(type, dest, length);
+		if (context.identity) {
+			context.registerRead(result);
+		}
+		Object[] array = (Object[]) result;
+		if (context.nullBitmap) {
+			int bitmap = buffer.readerIndex();
+			buffer.skipBytes((length + 7) >> 3);
+			for (int i = 0; i < length; i++) {
+				if ((buffer.getByte(bitmap + (i >> 3)) & (1 << (i & 7))) != 0) {
+					array[i] = readValue(componentType, (R) array[i], buffer, context);
+				} else {
+					array[i] = null;
+				}
+			}
+			return result;
+		}
 		for (int i = 0; i < length; i++) {
-			readComponent(componentType, dest, i, buffer, predicate);
-		}
-		return dest;
-	}
-
-	private static <T, R> void readComponent(Class<R> componentType, T dest, int index, ByteBuf buffer,
-			@Nullable Predicate<Field> predicate) throws ReflectiveOperationException {
-		if (componentType == boolean.class) {
-			Array.setBoolean(dest, index, buffer.readBoolean());
-		} else if (componentType == byte.class) {
-			Array.setByte(dest, index, buffer.readByte());
-		} else if (componentType == short.class) {
-			Array.setShort(dest, index, buffer.readShort());
-		} else if (componentType == int.class) {
-			Array.setInt(dest, index, buffer.readInt());
-		} else if (componentType == long.class) {
-			Array.setLong(dest, index, buffer.readLong());
-		} else if (componentType == float.class) {
-			Array.setFloat(dest, index, buffer.readFloat());
-		} else if (componentType == double.class) {
-			Array.setDouble(dest, index, buffer.readDouble());
-		} else if (componentType == char.class) {
-			Array.setChar(dest, index, buffer.readChar());
-		} else {
-			Array.set(dest, index, read(componentType, null, buffer, predicate));
+			array[i] = read(componentType, (R) array[i], buffer, context);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns {@code dest} if it is an array of exactly {@code type} and {@code length}, otherwise a new array.
+	 * Elements of a reused array serve as destinations for in-place reads.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T reuseArray(Class<T> type, @Nullable T dest, int length) {
+		if (dest != null && dest.getClass() == type && Array.getLength(dest) == length) {
+			return dest;
+		}
+		return (T) Array.newInstance(type.getComponentType(), length);
+	}
+
+	private static long minEncodedSize(FieldPlan.Kind componentKind, int length, SerializationContext context) {
+		if (!context.compact) {
+			return (long) length * componentKind.size();
+		}
+		switch (componentKind) {
+		case BOOLEAN:
+			return (length + 7L) >> 3;
+		case FLOAT:
+		case DOUBLE:
+			return (long) length * componentKind.size();
+		default:
+			return length;
+		}
+	}
+
+	static void checkReadable(ByteBuf buffer, long size) {
+		if (size < 0 || size > buffer.readableBytes()) {
+			throw new IndexOutOfBoundsException(String.format("readerIndex(%d) + length(%d) exceeds writerIndex(%d): %s",
+					buffer.readerIndex(), size, buffer.writerIndex(), buffer));
+		}
+	}
+
+	/**
+	 * Reads {@code length} elements into {@code dest} starting at {@code offset}.
+	 */
+	static void readPrimitiveArray(FieldPlan.Kind componentKind, Object dest, int offset, int length, ByteBuf buffer) {
+		if (componentKind == FieldPlan.Kind.BYTE) {
+			buffer.readBytes((byte[]) dest, offset, length);
+			return;
+		}
+		int index = buffer.readerIndex();
+		switch (componentKind) {
+		case BOOLEAN: {
+			boolean[] array = (boolean[]) dest;
+			for (int i = 0; i < length; i++) {
+				array[offset + i] = buffer.getBoolean(index + i);
+			}
+			break;
+		}
+		case SHORT: {
+			short[] array = (short[]) dest;
+			for (int i = 0; i < length; i++) {
+				array[offset + i] = buffer.getShort(index + (i << 1));
+			}
+			break;
+		}
+		case INT: {
+			int[] array = (int[]) dest;
+			for (int i = 0; i < length; i++) {
+				array[offset + i] = buffer.getInt(index + (i << 2));
+			}
+			break;
+		}
+		case LONG: {
+			long[] array = (long[]) dest;
+			for (int i = 0; i < length; i++) {
+				array[offset + i] = buffer.getLong(index + (i << 3));
+			}
+			break;
+		}
+		case FLOAT: {
+			float[] array = (float[]) dest;
+			for (int i = 0; i < length; i++) {
+				array[offset + i] = buffer.getFloat(index + (i << 2));
+			}
+			break;
 		}
+		case DOUBLE: {
+			double[] array = (double[]) dest;
+			for (int i = 0; i < length; i++) {
+				array[offset + i] = buffer.getDouble(index + (i << 3));
+			}
+			break;
+		}
+		case CHAR: {
+			char[] array = (char[]) dest;
+			for (int i = 0; i < length; i++) {
+				array[offset + i] = buffer.getChar(index + (i << 1));
+			}
+			break;
+		}
+		default:
+			throw new IllegalArgumentException(componentKind.toString());
+		}
+		buffer.readerIndex(index + length * componentKind.size());
 	}
 
-	private static <T> T readObject(Class<T> type, @Nullable T dest, ByteBuf buffer,
-			@Nullable Predicate<Field> predicate) throws ReflectiveOperationException {
+	/**
+	 * Reads {@code length} elements into {@code dest} starting at {@code offset}, which has to be a multiple of 8 for
+	 * boolean arrays.
+	 */
+	static void readCompactPrimitiveArray(FieldPlan.Kind componentKind, Object dest, int offset, int length,
+			ByteBuf buffer, SerializationContext context) {
+		switch (componentKind) {
+		case BOOLEAN: {
+			boolean[] array = (boolean[]) dest;
+			int bits = 0;
+			for (int i = 0; i < length; i++) {
+				if ((i & 7) == 0) {
+					bits = buffer.readUnsignedByte();
+				}
+				array[offset + i] = (bits & (1 << (i & 7))) != 0;
+			}
+			break;
+		}
+		case SHORT: {
+			short[] array = (short[]) dest;
+			for (int i = 0; i < length; i++) {
+				array[offset + i] = context.readShort(buffer);
+			}
+			break;
+		}
+		case INT: {
+			int[] array = (int[]) dest;
+			for (int i = 0; i < length; i++) {
+				array[offset + i] = context.readInt(buffer);
+			}
+			break;
+		}
+		case LONG: {
+			long[] array = (long[]) dest;
+			for (int i = 0; i < length; i++) {
+				array[offset + i] = context.readLong(buffer);
+			}
+			break;
+		}
+		case CHAR: {
+			char[] array = (char[]) dest;
+			for (int i = 0; i < length; i++) {
+				array[offset + i] = context.readChar(buffer);
+			}
+			break;
+		}
+		default:
+			readPrimitiveArray(componentKind, dest, offset, length, buffer);
+			break;
+		}
+	}
+
+	private static <T> T readObject(Class<T> type, @Nullable T dest, ByteBuf buffer, SerializationContext context)
+			throws ReflectiveOperationException {
 		T result = dest != null ? dest : type.newInstance();
-		StreamUtil.forEachUnchecked(streamFields(type, predicate), field -> {
-			field.setAccessible(true);
-			readField(result, field, buffer, predicate);
-		}, ReflectiveOperationException.class);
+		if (context.identity) {
+			context.registerRead(result);
+		}
+		FieldPlan plan = FieldPlan.get(type, context.predicate);
+		if (engine == Engine.BYTECODE && context.allowsGenerated()) {
+			GeneratedSerializer<T> serializer = SerializerGenerator.get(plan, context.predicate);
+			if (serializer != null) {
+				serializer.readInto(buffer, result, context);
+				return result;
+			}
+		}
+		long start = context.instrumented ? System.nanoTime() : 0L;
+		int position = buffer.readerIndex();
+		if (context.tagged) {
+			readTaggedFields(result, plan, buffer, context);
+			if (context.instrumented) {
+				context.instrumentation.objectRead(type, buffer.readerIndex() - position, System.nanoTime() - start,
+						dest != null);
+			}
+			return result;
+		}
+		if (context.compact && plan.booleanCount() > 0) {
+			readPackedBooleans(result, plan, buffer);
+		}
+		int nullBitmap = buffer.readerIndex();
+		if (context.nullBitmap) {
+			buffer.skipBytes((plan.nullableCount() + 7) >> 3);
+		}
+		int nullable = 0;
+		for (int i = 0; i < plan.size(); i++) {
+			FieldPlan.Entry entry = plan.get(i);
+			if (context.compact && entry.kind() == FieldPlan.Kind.BOOLEAN) {
+				continue;
+			}
+			int fieldPosition = buffer.readerIndex();
+			if (context.nullBitmap && !entry.kind().isPrimitive()) {
+				boolean present = entry.isNonNull()
+						|| (buffer.getByte(nullBitmap + (nullable >> 3)) & (1 << (nullable & 7))) != 0;
+				if (entry.isNullable()) {
+					nullable++;
+				}
+				readNullableField(result, entry, present, buffer, context);
+			} else {
+				readField(result, entry, buffer, context);
+			}
+			if (context.instrumented) {
+				context.instrumentation.fieldRead(entry.field(), buffer.readerIndex() - fieldPosition);
+			}
+		}
+		if (context.instrumented) {
+			context.instrumentation.objectRead(type, buffer.readerIndex() - position, System.nanoTime() - start,
+					dest != null);
+		}
 		return result;
 	}
 
-	@SuppressWarnings("unchecked")
-	private static <T, R> void readField(T dest, Field field, ByteBuf buffer, @Nullable Predicate<Field> predicate)
+	/**
+	 * Reads the fields written by {@link #writeTaggedFields(Object, FieldPlan, ByteBuf, SerializationContext)}. Fields
+	 * which aren't part of the plan, because the reader doesn't know or doesn't select them, are skipped and fields
+	 * missing from the payload keep their current value.
+	 */
+	private static void readTaggedFields(Object dest, FieldPlan plan, ByteBuf buffer, SerializationContext context)
 			throws ReflectiveOperationException {
-		Class<R> fieldType = (Class<R>) field.getType();
-		if (fieldType == boolean.class) {
+		int count = VarIntUtil.readVarInt(buffer);
+		for (int i = 0; i < count; i++) {
+			String name = context.fieldName(VarIntUtil.readVarInt(buffer));
+			int length = VarIntUtil.readVarInt(buffer);
+			checkReadable(buffer, length);
+			FieldPlan.Entry entry = plan.get(name);
+			if (entry == null) {
+				buffer.skipBytes(length);
+				continue;
+			}
+			int end = buffer.readerIndex() + length;
+			readField(dest, entry, buffer, context);
+			if (buffer.readerIndex() != end) {
+				throw new IllegalStateException("Field " + entry.field() + " read "
+						+ (buffer.readerIndex() - end + length) + " of " + length + " bytes, the type written differs");
+			}
+			if (context.instrumented) {
+				context.instrumentation.fieldRead(entry.field(), length);
+			}
+		}
+	}
+
+	private static void readNullableField(Object dest, FieldPlan.Entry entry, boolean present, ByteBuf buffer,
+			SerializationContext context) throws ReflectiveOperationException {
+		Field field = entry.field();
+		field.set(dest, present ? readValue(entry.valueType(), field.get(dest), buffer, context) : null);
+	}
+
+	static void readPackedBooleans(Object dest, FieldPlan plan, ByteBuf buffer)
+			throws ReflectiveOperationException {
+		int bits = 0;
+		int count = 0;
+		for (int i = 0; i < plan.size(); i++) {
+			FieldPlan.Entry entry = plan.get(i);
+			if (entry.kind() != FieldPlan.Kind.BOOLEAN) {
+				continue;
+			}
+			if ((count & 7) == 0) {
+				bits = buffer.readUnsignedByte();
+			}
+			entry.field().setBoolean(dest, (bits & (1 << (count++ & 7))) != 0);
+		}
+	}
+
+	static <T> void readField(T dest, FieldPlan.Entry entry, ByteBuf buffer, SerializationContext context)
+			throws ReflectiveOperationException {
+		Field field = entry.field();
+		switch (entry.kind()) {
+		case BOOLEAN:
 			field.setBoolean(dest, buffer.readBoolean());
-		} else if (fieldType == byte.class) {
+			break;
+		case BYTE:
 			field.setByte(dest, buffer.readByte());
-		} else if (fieldType == short.class) {
-			field.setShort(dest, buffer.readShort());
-		} else if (fieldType == int.class) {
-			field.setInt(dest, buffer.readInt());
-		} else if (fieldType == long.class) {
-			field.setLong(dest, buffer.readLong());
-		} else if (fieldType == float.class) {
+			break;
+		case SHORT:
+			field.setShort(dest, context.readShort(buffer));
+			break;
+		case INT:
+			field.setInt(dest, context.readInt(buffer));
+			break;
+		case LONG:
+			field.setLong(dest, context.readLong(buffer));
+			break;
+		case FLOAT:
 			field.setFloat(dest, buffer.readFloat());
-		} else if (fieldType == double.class) {
+			break;
+		case DOUBLE:
 			field.setDouble(dest, buffer.readDouble());
-		} else if (fieldType == char.class) {
-			field.setChar(dest, buffer.readChar());
-		} else {
-			field.set(dest, read(fieldType, (R) field.get(dest), buffer, predicate));
+			break;
+		case CHAR:
+			field.setChar(dest, context.readChar(buffer));
+			break;
+		default:
+			field.set(dest, readReference(entry.valueType(), field.get(dest), buffer, context));
+			break;
 		}
 	}
 
-	private static Stream<Field> streamFields(Class<?> type, @Nullable Predicate<Field> predicate) {
-		Stream<Field> fields = StreamUtil.streamDeclaredFields(type)
-				.filter(field -> !Modifier.isStatic(field.getModifiers()));
-		if (predicate != null) {
-			fields = fields.filter(predicate);
-		}
-		fields = fields.sorted(Comparator.comparing(Field::getName));
-		return fields;
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.FIELD)
+	public @interface NonNull {
+
+	}
+
+	public enum Engine {
+
+		REFLECTION, BYTECODE;
+
 	}
 
 	public interface Serializer<T> {
@@ -0,0 +1,532 @@
+package meldexun.configutil;
+
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Incremental counterpart of {@link ChunkedWriter}. Chunks are decoded as they arrive and decoding resumes mid-object
+ * with the next chunk. Objects, arrays, collections and maps are tracked on an explicit stack and filled element by
+ * element, so only the bytes of a single incomplete scalar (a primitive, string, enum, enum set, value of a custom
+ * serializer, length or null bitmap) are ever kept between chunks. These are limited to {@code maxPendingSize} bytes.
+ */
+public final class ChunkedReader<T> {
+
+	public static final int DEFAULT_MAX_PENDING_SIZE = 1024 * 1024;
+
+	private final T dest;
+	@Nullable
+	private final Predicate<Field> predicate;
+	private final int maxPendingSize;
+	private final ByteBuf pending = Unpooled.buffer();
+	private final Deque<Frame> frames = new ArrayDeque<>();
+	@Nullable
+	private SerializationContext context;
+	private boolean finished;
+
+	public ChunkedReader(T dest, @Nullable Predicate<Field> predicate) {
+		this(dest, predicate, DEFAULT_MAX_PENDING_SIZE);
+	}
+
+	public ChunkedReader(T dest, @Nullable Predicate<Field> predicate, int maxPendingSize) {
+		if (maxPendingSize <= 0) {
+			throw new IllegalArgumentException("Invalid max pending size: " + maxPendingSize);
+		}
+		this.dest = dest;
+		this.predicate = predicate;
+		this.maxPendingSize = maxPendingSize;
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Decodes as much as possible and returns {@code true} once the payload is complete. The chunk is fully consumed
+	 * but not released.
+	 *
+	 * @throws IllegalStateException if more than {@code maxPendingSize} bytes of an incomplete scalar are pending
+	 */
+	public boolean accept(ByteBuf chunk) throws ReflectiveOperationException {
+		if (finished) {
+			throw new IllegalStateException("Payload is already complete");
+		}
+		ByteBuf buffer;
+		if (pending.isReadable()) {
+			buffer = pending.writeBytes(chunk);
+			decode(buffer);
+			pending.discardReadBytes();
+		} else {
+			buffer = chunk;
+			decode(buffer);
+			pending.clear().writeBytes(chunk);
+		}
+		if (finished && pending.isReadable()) {
+			throw new IllegalStateException("Trailing bytes after payload: " + pending.readableBytes());
+		}
+		if (pending.readableBytes() > maxPendingSize) {
+			throw new IllegalStateException("Incomplete value exceeds " + maxPendingSize + " bytes");
+		}
+		return finished;
+	}
+
+	private void decode(ByteBuf buffer) throws ReflectiveOperationException {
+		while (!finished) {
+			int readerIndex = buffer.readerIndex();
+			try {
+				if (!step(buffer)) {
+					return;
+				}
+			} catch (IndexOutOfBoundsException e) {
+				if (e.getClass() != IndexOutOfBoundsException.class) {
+					throw e;
+				}
+				buffer.readerIndex(readerIndex);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Decodes at most a single scalar. Reads happen before any state is changed, so a step that runs out of bytes
+	 * within a scalar can simply be repeated once the next chunk arrived. Returns {@code false} if a frame needs more
+	 * bytes before it can continue.
+	 */
+	private boolean step(ByteBuf buffer) throws ReflectiveOperationException {
+		if (context == null) {
+			if (!buffer.isReadable()) {
+				return false;
+			}
+			WireFormat format = WireFormat.readHeader(buffer);
+			if (format.has(WireFormat.Feature.DELTA) || format.has(WireFormat.Feature.COMPRESSION)
+					|| format.has(WireFormat.Feature.TAGGED) || format.has(WireFormat.Feature.IDENTITY)) {
+				throw new IllegalStateException("Unsupported format for chunked payloads: " + format);
+			}
+			context = new SerializationContext(predicate, format);
+			return true;
+		}
+		if (frames.isEmpty()) {
+			if (buffer.readBoolean()) {
+				startValue(ValueType.of(dest.getClass()), dest, buffer, null);
+			} else {
+				finished = true;
+			}
+			return true;
+		}
+		return frames.peek().step(buffer);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <R> void startValue(ValueType type, @Nullable Object existing, ByteBuf buffer, @Nullable Frame parent)
+			throws ReflectiveOperationException {
+		if (type.enumConstants != null || type.category == ValueType.Category.ENUM_SET || isScalar(type.type)) {
+			deliver(parent, ByteBufUtil.readValue(type, existing, buffer, context));
+			return;
+		}
+		switch (type.category) {
+		case ENUM_MAP: {
+			Object[] constants = ValueType.enumConstants(type.element().type);
+			ValueType valueType = type.value();
+			byte[] bitmap = new byte[(constants.length + 7) >> 3];
+			buffer.readBytes(bitmap);
+			Map<Object, Object> map = (Map<Object, Object>) (existing != null ? existing : type.newEnumMap());
+			frames.push(new EnumMapFrame(map, constants, bitmap, valueType, parent));
+			break;
+		}
+		case COLLECTION: {
+			int size = context.readLength(buffer);
+			ValueType elementType = type.element();
+			Collection<Object> collection = (Collection<Object>) type.reuseContainer(existing);
+			frames.push(new CollectionFrame(collection, elementType, size, parent));
+			break;
+		}
+		case MAP: {
+			int size = context.readLength(buffer);
+			ValueType keyType = type.element();
+			ValueType valueType = type.value();
+			Map<Object, Object> map = (Map<Object, Object>) type.reuseContainer(existing);
+			map.clear();
+			frames.push(new MapFrame(map, keyType, valueType, size, parent));
+			break;
+		}
+		default: {
+			Class<R> raw = (Class<R>) type.type;
+			if (!raw.isArray()) {
+				Object object = existing != null ? existing : raw.newInstance();
+				frames.push(new ObjectFrame(object, FieldPlan.get(raw, predicate), parent));
+				break;
+			}
+			int length = context.readLength(buffer);
+			FieldPlan.Kind componentKind = FieldPlan.Kind.of(raw.getComponentType());
+			if (componentKind.isPrimitive()) {
+				Object array = ByteBufUtil.reuseArray(raw, (R) existing, length);
+				frames.push(new PrimitiveArrayFrame(array, componentKind, length, parent));
+				break;
+			}
+			byte[] nullBitmap = null;
+			if (context.nullBitmap) {
+				ByteBufUtil.checkReadable(buffer, (length + 7L) >> 3);
+				nullBitmap = new byte[(length + 7) >> 3];
+				buffer.readBytes(nullBitmap);
+			}
+			Object[] array = (Object[]) ByteBufUtil.reuseArray(raw, (R) existing, length);
+			frames.push(new ArrayFrame(array, nullBitmap, parent));
+			break;
+		}
+		}
+	}
+
+	/**
+	 * Whether values of {@code type} are read as a whole.
+	 */
+	private boolean isScalar(Class<?> type) {
+		return ByteBufUtil.getSerializer(type) != null;
+	}
+
+	private void deliver(@Nullable Frame parent, @Nullable Object value) throws ReflectiveOperationException {
+		if (parent == null) {
+			finished = true;
+		} else {
+			parent.accept(value);
+		}
+	}
+
+	private abstract class Frame {
+
+		final Object value;
+		@Nullable
+		final Frame parent;
+
+		Frame(Object value, @Nullable Frame parent) {
+			this.value = value;
+			this.parent = parent;
+		}
+
+		/**
+		 * Decodes the next element or completes the frame. Returns {@code false} if more bytes are needed.
+		 */
+		abstract boolean step(ByteBuf buffer) throws ReflectiveOperationException;
+
+		/**
+		 * Receives the element started by the last step, possibly after the frames of nested values completed.
+		 */
+		abstract void accept(@Nullable Object element) throws ReflectiveOperationException;
+
+		void startElement(ValueType type, @Nullable Object existing, boolean present, ByteBuf buffer)
+				throws ReflectiveOperationException {
+			if (present) {
+				startValue(type, existing, buffer, this);
+			} else {
+				accept(null);
+			}
+		}
+
+		void complete() throws ReflectiveOperationException {
+			frames.pop();
+			deliver(parent, value);
+		}
+
+	}
+
+	private class ObjectFrame extends Frame {
+
+		private final FieldPlan plan;
+		@Nullable
+		private byte[] nullBitmap;
+		private int index;
+		private int nullable;
+
+		ObjectFrame(Object value, FieldPlan plan, @Nullable Frame parent) {
+			super(value, parent);
+			this.plan = plan;
+		}
+
+		@Override
+		boolean step(ByteBuf buffer) throws ReflectiveOperationException {
+			if (nullBitmap == null) {
+				if (context.compact && plan.booleanCount() > 0) {
+					ByteBufUtil.readPackedBooleans(value, plan, buffer);
+				}
+				byte[] bitmap = new byte[context.nullBitmap ? (plan.nullableCount() + 7) >> 3 : 0];
+				buffer.readBytes(bitmap);
+				nullBitmap = bitmap;
+				return true;
+			}
+			if (index == plan.size()) {
+				complete();
+				return true;
+			}
+			FieldPlan.Entry entry = plan.get(index);
+			if (context.compact && entry.kind() == FieldPlan.Kind.BOOLEAN) {
+				index++;
+				return true;
+			}
+			if (entry.kind().isPrimitive()) {
+				ByteBufUtil.readField(value, entry, buffer, context);
+				index++;
+				return true;
+			}
+			boolean present;
+			if (context.nullBitmap) {
+				present = entry.isNonNull() || (nullBitmap[nullable >> 3] & (1 << (nullable & 7))) != 0;
+			} else {
+				present = buffer.readBoolean();
+			}
+			startElement(entry.valueType(), entry.field().get(value), present, buffer);
+			return true;
+		}
+
+		@Override
+		void accept(@Nullable Object element) throws ReflectiveOperationException {
+			FieldPlan.Entry entry = plan.get(index++);
+			entry.field().set(value, element);
+			if (context.nullBitmap && entry.isNullable()) {
+				nullable++;
+			}
+		}
+
+	}
+
+	private class ArrayFrame extends Frame {
+
+		private final ValueType componentType;
+		@Nullable
+		private final byte[] nullBitmap;
+		private int index;
+
+		ArrayFrame(Object[] value, @Nullable byte[] nullBitmap, @Nullable Frame parent) {
+			super(value, parent);
+			this.componentType = ValueType.of(value.getClass().getComponentType());
+			this.nullBitmap = nullBitmap;
+		}
+
+		@Override
+		boolean step(ByteBuf buffer) throws ReflectiveOperationException {
+			Object[] array = (Object[]) value;
+			if (index == array.length) {
+				complete();
+				return true;
+			}
+			boolean present;
+			if (nullBitmap != null) {
+				present = (nullBitmap[index >> 3] & (1 << (index & 7))) != 0;
+			} else {
+				present = buffer.readBoolean();
+			}
+			startElement(componentType, array[index], present, buffer);
+			return true;
+		}
+
+		@Override
+		void accept(@Nullable Object element) {
+			((Object[]) value)[index++] = element;
+		}
+
+	}
+
+	/**
+	 * Reads all complete elements of a chunk at once instead of one element per step.
+	 */
+	private class PrimitiveArrayFrame extends Frame {
+
+		private final FieldPlan.Kind componentKind;
+		private final int length;
+		private int index;
+
+		PrimitiveArrayFrame(Object value, FieldPlan.Kind componentKind, int length, @Nullable Frame parent) {
+			super(value, parent);
+			this.componentKind = componentKind;
+			this.length = length;
+		}
+
+		@Override
+		boolean step(ByteBuf buffer) throws ReflectiveOperationException {
+			if (index == length) {
+				complete();
+				return true;
+			}
+			int count = readableElements(buffer, length - index);
+			if (count == 0) {
+				return false;
+			}
+			if (context.compact) {
+				ByteBufUtil.readCompactPrimitiveArray(componentKind, value, index, count, buffer, context);
+			} else {
+				ByteBufUtil.readPrimitiveArray(componentKind, value, index, count, buffer);
+			}
+			index += count;
+			return true;
+		}
+
+		/**
+		 * Compact boolean arrays are only read in whole bytes, so {@link #index} stays a multiple of 8 until the last
+		 * byte.
+		 */
+		private int readableElements(ByteBuf buffer, int remaining) {
+			if (context.compact) {
+				switch (componentKind) {
+				case BOOLEAN:
+					return (int) Math.min(remaining, buffer.readableBytes() * 8L);
+				case SHORT:
+				case INT:
+				case LONG:
+				case CHAR:
+					return VarIntUtil.countVarInts(buffer, remaining);
+				default:
+					break;
+				}
+			}
+			return Math.min(remaining, buffer.readableBytes() / componentKind.size());
+		}
+
+		@Override
+		void accept(@Nullable Object element) {
+			throw new IllegalStateException("Primitive arrays have no nested values");
+		}
+
+	}
+
+	/**
+	 * Elements of random access lists are read into the elements they replace, like
+	 * {@link ByteBufUtil#readValue(ValueType, Object, ByteBuf, SerializationContext)} does.
+	 */
+	private class CollectionFrame extends Frame {
+
+		private final ValueType elementType;
+		private final int size;
+		@Nullable
+		private final List<Object> list;
+		private final int reused;
+		private int index;
+
+		CollectionFrame(Collection<Object> value, ValueType elementType, int size, @Nullable Frame parent) {
+			super(value, parent);
+			this.elementType = elementType;
+			this.size = size;
+			if (value instanceof List && value instanceof RandomAccess) {
+				list = (List<Object>) value;
+				reused = Math.min(size, list.size());
+				list.subList(reused, list.size()).clear();
+			} else {
+				list = null;
+				reused = 0;
+				value.clear();
+			}
+		}
+
+		@Override
+		boolean step(ByteBuf buffer) throws ReflectiveOperationException {
+			if (index == size) {
+				complete();
+				return true;
+			}
+			startElement(elementType, index < reused ? list.get(index) : null, buffer.readBoolean(), buffer);
+			return true;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		void accept(@Nullable Object element) {
+			if (index < reused) {
+				list.set(index, element);
+			} else {
+				((Collection<Object>) value).add(element);
+			}
+			index++;
+		}
+
+	}
+
+	private class MapFrame extends Frame {
+
+		private final ValueType keyType;
+		private final ValueType valueType;
+		private final int size;
+		private int index;
+		private boolean hasKey;
+		@Nullable
+		private Object key;
+
+		MapFrame(Map<Object, Object> value, ValueType keyType, ValueType valueType, int size, @Nullable Frame parent) {
+			super(value, parent);
+			this.keyType = keyType;
+			this.valueType = valueType;
+			this.size = size;
+		}
+
+		@Override
+		boolean step(ByteBuf buffer) throws ReflectiveOperationException {
+			if (index == size) {
+				complete();
+				return true;
+			}
+			startElement(hasKey ? valueType : keyType, null, buffer.readBoolean(), buffer);
+			return true;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		void accept(@Nullable Object element) {
+			if (!hasKey) {
+				key = element;
+				hasKey = true;
+				return;
+			}
+			((Map<Object, Object>) value).put(key, element);
+			key = null;
+			hasKey = false;
+			index++;
+		}
+
+	}
+
+	private class EnumMapFrame extends Frame {
+
+		private final Object[] constants;
+		private final byte[] bitmap;
+		private final ValueType valueType;
+		private int index;
+
+		EnumMapFrame(Map<Object, Object> value, Object[] constants, byte[] bitmap, ValueType valueType,
+				@Nullable Frame parent) {
+			super(value, parent);
+			this.constants = constants;
+			this.bitmap = bitmap;
+			this.valueType = valueType;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		boolean step(ByteBuf buffer) throws ReflectiveOperationException {
+			if (index == constants.length) {
+				complete();
+				return true;
+			}
+			Map<Object, Object> map = (Map<Object, Object>) value;
+			if ((bitmap[index >> 3] & (1 << (index & 7))) != 0) {
+				startElement(valueType, map.get(constants[index]), buffer.readBoolean(), buffer);
+			} else {
+				map.remove(constants[index++]);
+			}
+			return true;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		void accept(@Nullable Object element) {
+			((Map<Object, Object>) value).put(constants[index++], element);
+		}
+
+	}
+
+}
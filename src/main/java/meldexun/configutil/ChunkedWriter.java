@@ -0,0 +1,58 @@
+package meldexun.configutil;
+
+import java.lang.reflect.Field;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Writes a payload as a sequence of chunks of at most {@code chunkSize} bytes. Completed chunks are handed to the sink
+ * at field and array element boundaries, so only the current chunk and the value being written are held in memory.
+ * The concatenated chunks are identical to a {@link ConfigUtil#writeServerSettings(Object, ByteBuf, WireFormat)}
+ * payload and can be decoded incrementally with a {@link ChunkedReader}. The sink takes ownership of each chunk.
+ */
+public final class ChunkedWriter {
+
+	private final int chunkSize;
+	private final Consumer<ByteBuf> sink;
+
+	private ChunkedWriter(int chunkSize, Consumer<ByteBuf> sink) {
+		this.chunkSize = chunkSize;
+		this.sink = sink;
+	}
+
+	public static <T> void write(Class<T> type, T src, @Nullable Predicate<Field> predicate, WireFormat format,
+			int chunkSize, Consumer<ByteBuf> sink) throws ReflectiveOperationException {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+		}
+		if (format.has(WireFormat.Feature.DELTA) || format.has(WireFormat.Feature.COMPRESSION)
+				|| format.has(WireFormat.Feature.TAGGED) || format.has(WireFormat.Feature.IDENTITY)) {
+			throw new IllegalArgumentException("Unsupported format for chunked payloads: " + format);
+		}
+		ChunkedWriter writer = new ChunkedWriter(chunkSize, sink);
+		ByteBuf buffer = Unpooled.buffer(chunkSize);
+		try {
+			format.writeHeader(buffer);
+			ByteBufUtil.write(type, src, buffer, new SerializationContext(predicate, format, writer));
+			writer.flush(buffer, true);
+		} finally {
+			buffer.release();
+		}
+	}
+
+	void flush(ByteBuf buffer, boolean last) {
+		if (buffer.readableBytes() < chunkSize && !last) {
+			return;
+		}
+		while (buffer.readableBytes() >= chunkSize || last && buffer.isReadable()) {
+			sink.accept(buffer.readBytes(Math.min(buffer.readableBytes(), chunkSize)));
+		}
+		buffer.discardReadBytes();
+	}
+
+}
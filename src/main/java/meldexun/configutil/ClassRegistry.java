@@ -0,0 +1,74 @@
+package meldexun.configutil;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Maps classes to values registered for them or, if none is, for their closest superclass (excluding {@link Object})
+ * and then their interfaces in breadth-first order. Resolved values are memoized per class in a {@link ClassValue}
+ * that is replaced on registration, so lookups never lock.
+ */
+final class ClassRegistry<V> {
+
+	private final Map<Class<?>, V> registered = new ConcurrentHashMap<>();
+	private volatile ClassValue<Optional<V>> resolved = createCache();
+
+	void register(Class<?> type, V value) {
+		registered.put(type, value);
+		resolved = createCache();
+	}
+
+	@Nullable
+	V get(Class<?> type) {
+		return resolved.get(type).orElse(null);
+	}
+
+	private ClassValue<Optional<V>> createCache() {
+		return new ClassValue<Optional<V>>() {
+			@Override
+			protected Optional<V> computeValue(Class<?> type) {
+				return Optional.ofNullable(resolve(type));
+			}
+		};
+	}
+
+	@Nullable
+	private V resolve(Class<?> type) {
+		V value = registered.get(type);
+		if (value != null) {
+			return value;
+		}
+		for (Class<?> c = type.getSuperclass(); c != null && c != Object.class; c = c.getSuperclass()) {
+			value = registered.get(c);
+			if (value != null) {
+				return value;
+			}
+		}
+		Deque<Class<?>> queue = new ArrayDeque<>();
+		Set<Class<?>> visited = new HashSet<>();
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			Collections.addAll(queue, c.getInterfaces());
+		}
+		while (!queue.isEmpty()) {
+			Class<?> c = queue.poll();
+			if (!visited.add(c)) {
+				continue;
+			}
+			value = registered.get(c);
+			if (value != null) {
+				return value;
+			}
+			Collections.addAll(queue, c.getInterfaces());
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,265 @@
+package meldexun.configutil;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Deflate stage used by {@link ConfigUtil} for payloads written with {@link WireFormat.Feature#COMPRESSION}. A
+ * compressed block consists of the varint uncompressed length, the int compressed length and the deflated bytes.
+ * {@link Deflater} and {@link Inflater} instances are kept in small shared pools, codecs that don't fit back into their
+ * pool or were used on a corrupt payload are {@link Deflater#end() ended} right away instead of waiting for
+ * finalization to free their native memory.
+ */
+public class CompressionUtil {
+
+	private static final int SCRATCH_SIZE = 8192;
+	/**
+	 * Inputs larger than this are copied into a temporary array instead of growing the per-thread scratch array.
+	 */
+	private static final int MAX_SCRATCH_SIZE = 64 * 1024;
+	private static final int POOL_SIZE = 8;
+
+	private static final BlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+	private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+	private static final ThreadLocal<byte[]> INPUT_SCRATCH = ThreadLocal.withInitial(() -> new byte[SCRATCH_SIZE]);
+	private static final ThreadLocal<byte[]> OUTPUT_SCRATCH = ThreadLocal.withInitial(() -> new byte[SCRATCH_SIZE]);
+
+	private static volatile int threshold = 1024;
+	private static volatile int level = Deflater.DEFAULT_COMPRESSION;
+	private static volatile int maxDecompressedSize = 16 * 1024 * 1024;
+
+	private static final LongAdder COMPRESSED_PAYLOADS = new LongAdder();
+	private static final LongAdder SKIPPED_PAYLOADS = new LongAdder();
+	private static final LongAdder UNCOMPRESSED_BYTES = new LongAdder();
+	private static final LongAdder COMPRESSED_BYTES = new LongAdder();
+	private static final LongAdder COMPRESS_NANOS = new LongAdder();
+	private static final LongAdder DECOMPRESS_NANOS = new LongAdder();
+
+	public static int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Payloads smaller than this many bytes are sent uncompressed.
+	 */
+	public static void setThreshold(int threshold) {
+		CompressionUtil.threshold = threshold;
+	}
+
+	public static int getLevel() {
+		return level;
+	}
+
+	public static void setLevel(int level) {
+		if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+				&& level != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		}
+		CompressionUtil.level = level;
+	}
+
+	public static int getMaxDecompressedSize() {
+		return maxDecompressedSize;
+	}
+
+	public static void setMaxDecompressedSize(int maxDecompressedSize) {
+		CompressionUtil.maxDecompressedSize = maxDecompressedSize;
+	}
+
+	static boolean shouldCompress(ByteBuf payload) {
+		if (payload.readableBytes() < threshold) {
+			SKIPPED_PAYLOADS.increment();
+			return false;
+		}
+		return true;
+	}
+
+	public static void compress(ByteBuf src, ByteBuf dest) {
+		long start = System.nanoTime();
+		int length = src.readableBytes();
+		Deflater deflater = DEFLATERS.poll();
+		if (deflater == null) {
+			deflater = new Deflater();
+		}
+		boolean reusable = false;
+		int lengthIndex;
+		try {
+			deflater.setLevel(level);
+			setInput(src, length, deflater::setInput);
+			deflater.finish();
+
+			VarIntUtil.writeVarInt(dest, length);
+			lengthIndex = dest.writerIndex();
+			dest.writeInt(0);
+			byte[] scratch = dest.hasArray() ? null : OUTPUT_SCRATCH.get();
+			while (!deflater.finished()) {
+				if (scratch != null) {
+					dest.writeBytes(scratch, 0, deflater.deflate(scratch));
+				} else {
+					dest.ensureWritable(Math.max(length >> 2, 64));
+					int index = dest.writerIndex();
+					int n = deflater.deflate(dest.array(), dest.arrayOffset() + index, dest.writableBytes());
+					dest.writerIndex(index + n);
+				}
+			}
+			reusable = true;
+		} finally {
+			release(deflater, reusable);
+		}
+		int compressedLength = dest.writerIndex() - lengthIndex - 4;
+		dest.setInt(lengthIndex, compressedLength);
+		src.skipBytes(length);
+
+		COMPRESSED_PAYLOADS.increment();
+		UNCOMPRESSED_BYTES.add(length);
+		COMPRESSED_BYTES.add(compressedLength);
+		COMPRESS_NANOS.add(System.nanoTime() - start);
+	}
+
+	public static void decompress(ByteBuf src, ByteBuf dest) {
+		long start = System.nanoTime();
+		int length = VarIntUtil.readVarInt(src);
+		int compressedLength = src.readInt();
+		if (length < 0 || length > maxDecompressedSize) {
+			throw new IllegalStateException("Invalid decompressed size: " + length);
+		}
+		if (compressedLength < 0 || compressedLength > src.readableBytes()) {
+			throw new IllegalStateException("Invalid compressed size: " + compressedLength);
+		}
+		Inflater inflater = INFLATERS.poll();
+		if (inflater == null) {
+			inflater = new Inflater();
+		}
+		boolean reusable = false;
+		try {
+			setInput(src, compressedLength, inflater::setInput);
+			dest.ensureWritable(length);
+			int remaining = length;
+			while (remaining > 0 && !inflater.finished()) {
+				int n;
+				if (dest.hasArray()) {
+					n = inflater.inflate(dest.array(), dest.arrayOffset() + dest.writerIndex(), remaining);
+					dest.writerIndex(dest.writerIndex() + n);
+				} else {
+					byte[] scratch = OUTPUT_SCRATCH.get();
+					n = inflater.inflate(scratch, 0, Math.min(remaining, scratch.length));
+					dest.writeBytes(scratch, 0, n);
+				}
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				remaining -= n;
+			}
+			if (remaining != 0 || !inflater.finished()) {
+				throw new IllegalStateException("Compressed payload doesn't match its announced size");
+			}
+			reusable = true;
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Corrupt compressed payload", e);
+		} finally {
+			release(inflater, reusable);
+		}
+		src.skipBytes(compressedLength);
+
+		DECOMPRESS_NANOS.add(System.nanoTime() - start);
+	}
+
+	private static void setInput(ByteBuf src, int length, InputConsumer consumer) {
+		if (src.hasArray()) {
+			consumer.accept(src.array(), src.arrayOffset() + src.readerIndex(), length);
+			return;
+		}
+		byte[] scratch = INPUT_SCRATCH.get();
+		if (scratch.length < length) {
+			if (length > MAX_SCRATCH_SIZE) {
+				// released with the codec, which drops its input when it is reset
+				scratch = new byte[length];
+			} else {
+				scratch = new byte[Math.min(Math.max(length, scratch.length << 1), MAX_SCRATCH_SIZE)];
+				INPUT_SCRATCH.set(scratch);
+			}
+		}
+		src.getBytes(src.readerIndex(), scratch, 0, length);
+		consumer.accept(scratch, 0, length);
+	}
+
+	private static void release(Deflater deflater, boolean reusable) {
+		if (reusable) {
+			deflater.reset();
+			if (DEFLATERS.offer(deflater)) {
+				return;
+			}
+		}
+		deflater.end();
+	}
+
+	private static void release(Inflater inflater, boolean reusable) {
+		if (reusable) {
+			inflater.reset();
+			if (INFLATERS.offer(inflater)) {
+				return;
+			}
+		}
+		inflater.end();
+	}
+
+	public static Statistics getStatistics() {
+		return new Statistics(COMPRESSED_PAYLOADS.sum(), SKIPPED_PAYLOADS.sum(), UNCOMPRESSED_BYTES.sum(),
+				COMPRESSED_BYTES.sum(), COMPRESS_NANOS.sum(), DECOMPRESS_NANOS.sum());
+	}
+
+	public static void resetStatistics() {
+		COMPRESSED_PAYLOADS.reset();
+		SKIPPED_PAYLOADS.reset();
+		UNCOMPRESSED_BYTES.reset();
+		COMPRESSED_BYTES.reset();
+		COMPRESS_NANOS.reset();
+		DECOMPRESS_NANOS.reset();
+	}
+
+	private interface InputConsumer {
+
+		void accept(byte[] b, int off, int len);
+
+	}
+
+	public static final class Statistics {
+
+		public final long compressedPayloads;
+		public final long skippedPayloads;
+		public final long uncompressedBytes;
+		public final long compressedBytes;
+		public final long compressNanos;
+		public final long decompressNanos;
+
+		private Statistics(long compressedPayloads, long skippedPayloads, long uncompressedBytes, long compressedBytes,
+				long compressNanos, long decompressNanos) {
+			this.compressedPayloads = compressedPayloads;
+			this.skippedPayloads = skippedPayloads;
+			this.uncompressedBytes = uncompressedBytes;
+			this.compressedBytes = compressedBytes;
+			this.compressNanos = compressNanos;
+			this.decompressNanos = decompressNanos;
+		}
+
+		public double ratio() {
+			return uncompressedBytes != 0 ? (double) compressedBytes / uncompressedBytes : 1.0D;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"compressed=%d skipped=%d bytes=%d->%d (%.1f%%) compress=%.3fms decompress=%.3fms",
+					compressedPayloads, skippedPayloads, uncompressedBytes, compressedBytes, ratio() * 100.0D,
+					compressNanos / 1_000_000.0D, decompressNanos / 1_000_000.0D);
+		}
+
+	}
+
+}
@@ -4,8 +4,12 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.lang.reflect.Field;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 
 public class ConfigUtil {
 
@@ -15,8 +19,21 @@ public class ConfigUtil {
 
 	}
 
+	public static final Predicate<Field> SYNC_FIELDS = field -> field.isAnnotationPresent(Sync.class);
+	public static final Predicate<Field> CLIENT_FIELDS = SYNC_FIELDS.negate();
+
 	public static <T> void copyClientSettings(T src, T dest) throws ReflectiveOperationException {
-		CopyUtil.copy(src, dest, field -> !field.isAnnotationPresent(Sync.class));
+		CopyUtil.copy(src, dest, CLIENT_FIELDS);
+	}
+
+	/**
+	 * Like {@link #copyClientSettings(Object, Object)} but keeps unchanged objects and arrays of {@code dest} in place.
+	 */
+	public static <T> CopyUtil.UpdateStatistics updateClientSettings(T src, T dest)
+			throws ReflectiveOperationException {
+		CopyUtil.UpdateStatistics statistics = new CopyUtil.UpdateStatistics();
+		CopyUtil.update(src, dest, CLIENT_FIELDS, statistics);
+		return statistics;
 	}
 
 	public static <T> void copyAllSettings(T src, T dest) throws ReflectiveOperationException {
@@ -24,11 +41,120 @@ public class ConfigUtil {
 	}
 
 	public static <T> void writeServerSettings(T src, ByteBuf buffer) throws ReflectiveOperationException {
-		ByteBufUtil.write(src, buffer, field -> field.isAnnotationPresent(Sync.class));
+		ByteBufUtil.write(src, buffer, SYNC_FIELDS);
+	}
+
+	public static <T> void writeServerSettings(T src, ByteBuf buffer, WireFormat format)
+			throws ReflectiveOperationException {
+		WireFormat payloadFormat = format.without(WireFormat.Feature.COMPRESSION);
+		writePayload(buffer, format, payload -> ByteBufUtil.write(src, payload, SYNC_FIELDS, payloadFormat));
+	}
+
+	/**
+	 * Like {@link #writeServerSettings(Object, ByteBuf, WireFormat)} but into a buffer from {@code allocator} that is
+	 * sized exactly with {@link SizeUtil}. With {@link WireFormat.Feature#COMPRESSION} the uncompressed size is only
+	 * used as initial capacity.
+	 */
+	public static <T> ByteBuf writeServerSettings(T src, ByteBufAllocator allocator, WireFormat format)
+			throws ReflectiveOperationException {
+		ByteBuf buffer = allocator.buffer(1 + SizeUtil.sizeOf(src, SYNC_FIELDS,
+				format.without(WireFormat.Feature.COMPRESSION)));
+		try {
+			writeServerSettings(src, buffer, format);
+		} catch (ReflectiveOperationException | RuntimeException | Error e) {
+			buffer.release();
+			throw e;
+		}
+		return buffer;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <T> void writeServerSettingsDelta(T src, SyncSnapshot<T> snapshot, ByteBuf buffer,
+			WireFormat format) throws ReflectiveOperationException {
+		synchronized (snapshot) {
+			T previous = snapshot.get();
+			if (previous == null) {
+				writeServerSettings(src, buffer, format);
+			} else {
+				WireFormat payloadFormat = format.without(WireFormat.Feature.COMPRESSION);
+				writePayload(buffer, format.with(WireFormat.Feature.DELTA), payload -> DeltaUtil
+						.write((Class<T>) src.getClass(), previous, src, payload, SYNC_FIELDS, payloadFormat));
+			}
+			snapshot.update(src);
+		}
+	}
+
+	/**
+	 * Writes the same payload as {@link #writeServerSettings(Object, ByteBuf, WireFormat)} split into chunks of at
+	 * most {@code chunkSize} bytes. See {@link ChunkedWriter}.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> void writeServerSettingsChunked(T src, WireFormat format, int chunkSize, Consumer<ByteBuf> sink)
+			throws ReflectiveOperationException {
+		ChunkedWriter.write((Class<T>) src.getClass(), src, SYNC_FIELDS, format, chunkSize, sink);
 	}
 
+	public static <T> ChunkedReader<T> readServerSettingsChunked(T dest) {
+		return new ChunkedReader<>(dest, SYNC_FIELDS);
+	}
+
+	@SuppressWarnings("unchecked")
 	public static <T> void readServerSettings(T dest, ByteBuf buffer) throws ReflectiveOperationException {
-		ByteBufUtil.read(dest, buffer, field -> field.isAnnotationPresent(Sync.class));
+		WireFormat format = WireFormat.readHeader(buffer);
+		if (!format.has(WireFormat.Feature.COMPRESSION)) {
+			readPayload(dest, buffer, format);
+			return;
+		}
+		ByteBuf payload = buffer.alloc().heapBuffer();
+		try {
+			CompressionUtil.decompress(buffer, payload);
+			readPayload(dest, payload, format.without(WireFormat.Feature.COMPRESSION));
+		} finally {
+			payload.release();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> void readPayload(T dest, ByteBuf buffer, WireFormat format)
+			throws ReflectiveOperationException {
+		if (format.has(WireFormat.Feature.DELTA)) {
+			DeltaUtil.read((Class<T>) dest.getClass(), dest, buffer, SYNC_FIELDS,
+					format.without(WireFormat.Feature.DELTA));
+		} else {
+			ByteBufUtil.read(dest, buffer, SYNC_FIELDS, format);
+		}
+	}
+
+	/**
+	 * Writes the header of {@code format} followed by the payload. With {@link WireFormat.Feature#COMPRESSION} the
+	 * payload is encoded into a temporary buffer first and the bit is cleared again if it stays below the threshold.
+	 */
+	private static void writePayload(ByteBuf buffer, WireFormat format, PayloadWriter writer)
+			throws ReflectiveOperationException {
+		if (!format.has(WireFormat.Feature.COMPRESSION)) {
+			format.writeHeader(buffer);
+			writer.write(buffer);
+			return;
+		}
+		ByteBuf payload = buffer.alloc().heapBuffer();
+		try {
+			writer.write(payload);
+			if (CompressionUtil.shouldCompress(payload)) {
+				format.writeHeader(buffer);
+				CompressionUtil.compress(payload, buffer);
+			} else {
+				format.without(WireFormat.Feature.COMPRESSION).writeHeader(buffer);
+				buffer.writeBytes(payload);
+			}
+		} finally {
+			payload.release();
+		}
+	}
+
+	private interface PayloadWriter {
+
+		void write(ByteBuf buffer) throws ReflectiveOperationException;
+
 	}
 
 }
@@ -1,19 +1,39 @@
 package meldexun.configutil;
 
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
-import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 public class CopyUtil {
 
-	private static final Set<Class<?>> IMMUTABLE_CLASSES = new HashSet<>();
+	private static final Logger LOGGER = LogManager.getLogger();
+	private static final Set<Class<?>> IMMUTABLE_CLASSES = ConcurrentHashMap.newKeySet();
 	static {
 		registerImmutableClass(Boolean.class);
 		registerImmutableClass(Byte.class);
@@ -26,12 +46,127 @@ public class CopyUtil {
 		registerImmutableClass(String.class);
 	}
 
+	private static volatile FieldAccessor.Backend accessorBackend = parseBackend(
+			System.getProperty("configutil.accessorBackend"));
+
+	private static volatile ClassValue<Boolean> immutable = createImmutableCache();
+	private static final ThreadLocal<Set<Class<?>>> ANALYZING = ThreadLocal.withInitial(HashSet::new);
+
+	private static final int PARALLEL_BATCH_SIZE = 512;
+	private static volatile int parallelThreshold = Integer.getInteger("configutil.parallelCopyThreshold", 8192);
+	@Nullable
+	private static volatile ForkJoinPool forkJoinPool;
+	private static volatile Instrumentation instrumentation = Instrumentation.NONE;
+
+	/**
+	 * An invalid value only logs a warning, as throwing from the static initializer would leave this class unusable.
+	 */
+	private static FieldAccessor.Backend parseBackend(@Nullable String value) {
+		if (value == null) {
+			return FieldAccessor.Backend.REFLECTION;
+		}
+		try {
+			return FieldAccessor.Backend.valueOf(value.trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			LOGGER.warn("Unknown accessor backend '{}' in configutil.accessorBackend, using {}", value,
+					FieldAccessor.Backend.REFLECTION);
+			return FieldAccessor.Backend.REFLECTION;
+		}
+	}
+
+	public static void setAccessorBackend(FieldAccessor.Backend backend) {
+		accessorBackend = backend;
+	}
+
+	public static FieldAccessor.Backend getAccessorBackend() {
+		return accessorBackend;
+	}
+
+	public static void setInstrumentation(@Nullable Instrumentation instrumentation) {
+		CopyUtil.instrumentation = instrumentation != null ? instrumentation : Instrumentation.NONE;
+	}
+
+	public static Instrumentation getInstrumentation() {
+		return instrumentation;
+	}
+
+	/**
+	 * Arrays of mutable objects with at least this many elements are copied in parallel.
+	 */
+	public static void setParallelThreshold(int threshold) {
+		parallelThreshold = threshold;
+	}
+
+	public static int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/**
+	 * Sets the pool used for parallel array copies, {@code null} selects {@link ForkJoinPool#commonPool()}.
+	 */
+	public static void setForkJoinPool(@Nullable ForkJoinPool pool) {
+		forkJoinPool = pool;
+	}
+
+	/**
+	 * Can be called concurrently with copying, copies started afterwards see the new class. Registering drops the
+	 * cached immutability analysis of all classes. Subclasses are not affected.
+	 */
 	public static void registerImmutableClass(Class<?> type) {
-		IMMUTABLE_CLASSES.add(type);
+		if (IMMUTABLE_CLASSES.add(type)) {
+			immutable = createImmutableCache();
+		}
+	}
+
+	public static boolean isImmutable(Class<?> type) {
+		return type.isPrimitive() || immutable.get(type);
 	}
 
-	private static boolean isImmutable(Class<?> type) {
-		return type.isPrimitive() || IMMUTABLE_CLASSES.contains(type);
+	private static ClassValue<Boolean> createImmutableCache() {
+		return new ClassValue<Boolean>() {
+			@Override
+			protected Boolean computeValue(Class<?> type) {
+				return IMMUTABLE_CLASSES.contains(type) || analyzeImmutable(type);
+			}
+		};
+	}
+
+	/**
+	 * A class is immutable if it is annotated with {@link Immutable}, an enum, or final with only final instance fields
+	 * (including inherited ones) of immutable types. Classes that are still being analyzed further up the stack count as
+	 * mutable, so reference cycles are deep-copied rather than wrongly shared.
+	 */
+	private static boolean analyzeImmutable(Class<?> type) {
+		Immutable annotation = type.getAnnotation(Immutable.class);
+		if (annotation != null) {
+			return annotation.value();
+		}
+		if (Enum.class.isAssignableFrom(type)) {
+			return true;
+		}
+		if (type.isArray() || type.isInterface() || !Modifier.isFinal(type.getModifiers())) {
+			return false;
+		}
+		Set<Class<?>> analyzing = ANALYZING.get();
+		if (!analyzing.add(type)) {
+			return false;
+		}
+		try {
+			for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					int modifiers = field.getModifiers();
+					if (Modifier.isStatic(modifiers)) {
+						continue;
+					}
+					if (!Modifier.isFinal(modifiers) || !isImmutable(field.getType())) {
+						return false;
+					}
+				}
+			}
+			return true;
+		} finally {
+			analyzing.remove(type);
+		}
 	}
 
 	public static <T> T copy(@Nullable T src, @Nullable Predicate<Field> predicate)
@@ -68,88 +203,494 @@ public class CopyUtil {
 			return copyArray(type, src, predicate);
 		}
 
+		if (src instanceof Collection || src instanceof Map) {
+			return copyContainer(type, src, dest, predicate);
+		}
+
 		return copyObject(type, src, dest, predicate);
 	}
 
+	/**
+	 * Like {@link #copy(Object, Predicate)} but copies each object, array and container reachable from {@code src}
+	 * only once. References shared in {@code src} are shared in the copy as well and cycles are reproduced instead of
+	 * overflowing the stack. Nothing is copied in parallel.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T copyShared(@Nullable T src, @Nullable Predicate<Field> predicate)
+			throws ReflectiveOperationException {
+		if (src == null) {
+			return null;
+		}
+
+		return copyShared((Class<T>) src.getClass(), src, predicate, new IdentityHashMap<>());
+	}
+
+	public static <T> T copyShared(Class<T> type, @Nullable T src, @Nullable Predicate<Field> predicate)
+			throws ReflectiveOperationException {
+		return copyShared(type, src, predicate, new IdentityHashMap<>());
+	}
+
+	/**
+	 * Copies are added to {@code copies} before their fields, elements or entries are copied, so references back to
+	 * them resolve to the copy under construction.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <T, R> T copyShared(Class<T> type, @Nullable T src, @Nullable Predicate<Field> predicate,
+			Map<Object, Object> copies) throws ReflectiveOperationException {
+		if (src == null || isImmutable(type)) {
+			return src;
+		}
+		T copy = (T) copies.get(src);
+		if (copy != null) {
+			return copy;
+		}
+		Instrumentation instrumentation = CopyUtil.instrumentation;
+
+		if (type.isArray()) {
+			Class<R> componentType = (Class<R>) type.getComponentType();
+			int length = Array.getLength(src);
+			T dest = (T) Array.newInstance(componentType, length);
+			copies.put(src, dest);
+			if (instrumentation != Instrumentation.NONE) {
+				instrumentation.arrayCopied(type, length, false);
+			}
+			if (isImmutable(componentType)) {
+				System.arraycopy(src, 0, dest, 0, length);
+				return dest;
+			}
+			Object[] srcArray = (Object[]) src;
+			Object[] destArray = (Object[]) dest;
+			for (int i = 0; i < length; i++) {
+				destArray[i] = copyShared(componentType, (R) srcArray[i], predicate, copies);
+			}
+			return dest;
+		}
+
+		if (src instanceof EnumSet) {
+			T dest = (T) ((EnumSet<?>) src).clone();
+			copies.put(src, dest);
+			return dest;
+		}
+
+		if (src instanceof Map) {
+			Map<Object, Object> dest;
+			if (src instanceof EnumMap) {
+				dest = new EnumMap((EnumMap) src);
+				dest.clear();
+			} else {
+				dest = (Map<Object, Object>) ValueType.newContainer(type, src);
+			}
+			copies.put(src, dest);
+			for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) src).entrySet()) {
+				dest.put(copySharedElement(entry.getKey(), predicate, copies),
+						copySharedElement(entry.getValue(), predicate, copies));
+			}
+			return (T) dest;
+		}
+
+		if (src instanceof Collection) {
+			Collection<Object> dest = (Collection<Object>) ValueType.newContainer(type, src);
+			copies.put(src, dest);
+			for (Object element : (Collection<Object>) src) {
+				dest.add(copySharedElement(element, predicate, copies));
+			}
+			return (T) dest;
+		}
+
+		long start = instrumentation != Instrumentation.NONE ? System.nanoTime() : 0L;
+		T dest = type.newInstance();
+		copies.put(src, dest);
+		FieldPlan plan = FieldPlan.get(type, predicate);
+		FieldAccessor.Backend backend = accessorBackend;
+		for (int i = 0; i < plan.size(); i++) {
+			FieldPlan.Entry entry = plan.get(i);
+			FieldAccessor accessor = entry.accessor(backend);
+			if (entry.kind().isPrimitive()) {
+				accessor.copy(src, dest);
+			} else {
+				accessor.set(dest, copyShared((Class<R>) entry.type(), (R) accessor.get(src), predicate, copies));
+			}
+		}
+		if (instrumentation != Instrumentation.NONE) {
+			instrumentation.objectCopied(type, System.nanoTime() - start, false);
+		}
+		return dest;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Nullable
+	private static <R> R copySharedElement(@Nullable R src, @Nullable Predicate<Field> predicate,
+			Map<Object, Object> copies) throws ReflectiveOperationException {
+		return src != null ? copyShared((Class<R>) src.getClass(), src, predicate, copies) : null;
+	}
+
+	/**
+	 * Enum sets are copied as a whole. Elements of other collections and the keys and values of maps are copied
+	 * according to their runtime class, so immutable ones are shared without further dispatch. {@code dest} is refilled
+	 * if it is compatible with {@code src}, reusing the elements of lists and the values of maps in place.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <T> T copyContainer(Class<T> type, T src, @Nullable T dest, @Nullable Predicate<Field> predicate)
+			throws ReflectiveOperationException {
+		boolean reused = dest != null && ValueType.isRefillable(dest) && ValueType.isCompatible(src, dest);
+		if (src instanceof EnumSet) {
+			if (!reused) {
+				return (T) ((EnumSet<?>) src).clone();
+			}
+			((Set) dest).clear();
+			((Set) dest).addAll((Set) src);
+			return dest;
+		}
+		if (src instanceof Map) {
+			Map<Object, Object> srcMap = (Map<Object, Object>) src;
+			Map<Object, Object> result;
+			if (reused) {
+				result = (Map<Object, Object>) dest;
+			} else if (src instanceof EnumMap) {
+				result = new EnumMap((EnumMap) src);
+				result.clear();
+			} else {
+				result = (Map<Object, Object>) ValueType.newContainer(type, src);
+			}
+			for (Map.Entry<Object, Object> entry : srcMap.entrySet()) {
+				Object key = copy(entry.getKey(), predicate);
+				result.put(key, copyElement(entry.getValue(), result.get(key), predicate));
+			}
+			if (reused) {
+				result.keySet().retainAll(srcMap.keySet());
+			}
+			return (T) result;
+		}
+		Collection<Object> srcCollection = (Collection<Object>) src;
+		Collection<Object> result = (Collection<Object>) (reused ? dest : ValueType.newContainer(type, src));
+		Iterator<Object> iterator = srcCollection.iterator();
+		if (reused && result instanceof List && result instanceof RandomAccess) {
+			List<Object> list = (List<Object>) result;
+			int count = Math.min(srcCollection.size(), list.size());
+			for (int i = 0; i < count; i++) {
+				list.set(i, copyElement(iterator.next(), list.get(i), predicate));
+			}
+			list.subList(count, list.size()).clear();
+		} else {
+			result.clear();
+		}
+		while (iterator.hasNext()) {
+			result.add(copy(iterator.next(), predicate));
+		}
+		return (T) result;
+	}
+
+	@Nullable
+	private static Object copyElement(@Nullable Object src, @Nullable Object dest, @Nullable Predicate<Field> predicate)
+			throws ReflectiveOperationException {
+		if (src == null || dest == null || src.getClass() != dest.getClass()) {
+			return copy(src, predicate);
+		}
+		return copy(src, dest, predicate);
+	}
+
 	@SuppressWarnings("unchecked")
 	private static <T, R> T copyArray(Class<T> type, T src, @Nullable Predicate<Field> predicate)
 			throws ReflectiveOperationException {
 		Class<R> componentType = (Class<R>) type.getComponentType();
 		int length = Array.getLength(src);
 		T dest = (T) Array.newInstance(componentType, length);
-		for (int i = 0; i < length; i++) {
-			copyComponent(componentType, src, dest, i, predicate);
+		Instrumentation instrumentation = CopyUtil.instrumentation;
+		if (instrumentation != Instrumentation.NONE) {
+			instrumentation.arrayCopied(type, length, false);
+		}
+		if (isImmutable(componentType)) {
+			System.arraycopy(src, 0, dest, 0, length);
+			return dest;
 		}
+		Object[] srcArray = (Object[]) src;
+		Object[] destArray = (Object[]) dest;
+		if (length >= parallelThreshold) {
+			copyParallel(componentType, srcArray, destArray, predicate);
+			return dest;
+		}
+		copyElements(componentType, srcArray, destArray, 0, length, predicate);
 		return dest;
 	}
 
 	@SuppressWarnings("unchecked")
-	private static <T, R> void copyComponent(Class<R> componentType, T src, T dest, int index,
+	private static <R> void copyElements(Class<R> componentType, Object[] src, Object[] dest, int from, int to,
+			@Nullable Predicate<Field> predicate) throws ReflectiveOperationException {
+		for (int i = from; i < to; i++) {
+			dest[i] = copy(componentType, (R) src[i], predicate);
+		}
+	}
+
+	private static void copyParallel(Class<?> componentType, Object[] src, Object[] dest,
 			@Nullable Predicate<Field> predicate) throws ReflectiveOperationException {
-		if (componentType == boolean.class) {
-			Array.setBoolean(dest, index, Array.getBoolean(src, index));
-		} else if (componentType == byte.class) {
-			Array.setByte(dest, index, Array.getByte(src, index));
-		} else if (componentType == short.class) {
-			Array.setShort(dest, index, Array.getShort(src, index));
-		} else if (componentType == int.class) {
-			Array.setInt(dest, index, Array.getInt(src, index));
-		} else if (componentType == long.class) {
-			Array.setLong(dest, index, Array.getLong(src, index));
-		} else if (componentType == float.class) {
-			Array.setFloat(dest, index, Array.getFloat(src, index));
-		} else if (componentType == double.class) {
-			Array.setDouble(dest, index, Array.getDouble(src, index));
-		} else if (componentType == char.class) {
-			Array.setChar(dest, index, Array.getChar(src, index));
+		AtomicReference<ReflectiveOperationException> error = new AtomicReference<>();
+		CopyTask task = new CopyTask(componentType, src, dest, 0, src.length, predicate, error);
+		if (ForkJoinTask.inForkJoinPool()) {
+			task.invoke();
 		} else {
-			Array.set(dest, index, copy(componentType, (R) Array.get(src, index), predicate));
+			ForkJoinPool pool = forkJoinPool;
+			(pool != null ? pool : ForkJoinPool.commonPool()).invoke(task);
+		}
+		if (error.get() != null) {
+			throw error.get();
 		}
 	}
 
 	private static <T> T copyObject(Class<T> type, T src, @Nullable T dest, @Nullable Predicate<Field> predicate)
 			throws ReflectiveOperationException {
+		Instrumentation instrumentation = CopyUtil.instrumentation;
+		long start = instrumentation != Instrumentation.NONE ? System.nanoTime() : 0L;
 		T result = dest != null ? dest : type.newInstance();
-		StreamUtil.forEachUnchecked(streamFields(type, predicate), field -> {
-			field.setAccessible(true);
-			copyField(src, result, field, predicate);
-		}, ReflectiveOperationException.class);
+		FieldPlan plan = FieldPlan.get(type, predicate);
+		FieldAccessor.Backend backend = accessorBackend;
+		for (int i = 0; i < plan.size(); i++) {
+			copyField(src, result, plan.get(i), backend, predicate);
+		}
+		if (instrumentation != Instrumentation.NONE) {
+			instrumentation.objectCopied(type, System.nanoTime() - start, dest != null);
+		}
 		return result;
 	}
 
 	@SuppressWarnings("unchecked")
-	private static <T, R> void copyField(T src, T dest, Field field, @Nullable Predicate<Field> predicate)
+	private static <T, R> void copyField(T src, T dest, FieldPlan.Entry entry, FieldAccessor.Backend backend,
+			@Nullable Predicate<Field> predicate) throws ReflectiveOperationException {
+		FieldAccessor accessor = entry.accessor(backend);
+		if (entry.kind().isPrimitive()) {
+			accessor.copy(src, dest);
+			return;
+		}
+		Class<R> fieldType = (Class<R>) entry.type();
+		accessor.set(dest, copy(fieldType, (R) accessor.get(src), (R) accessor.get(dest), predicate));
+	}
+
+	/**
+	 * Like {@link #copy(Object, Object, Predicate)} but compares {@code src} with {@code dest} and only writes what
+	 * differs. Unchanged objects and arrays of the same length already present in {@code dest} are updated in place
+	 * instead of being allocated again.
+	 */
+	public static <T> T update(@Nullable T src, @Nullable T dest, @Nullable Predicate<Field> predicate)
 			throws ReflectiveOperationException {
-		Class<R> fieldType = (Class<R>) field.getType();
-		if (fieldType == boolean.class) {
-			field.setBoolean(dest, field.getBoolean(src));
-		} else if (fieldType == byte.class) {
-			field.setByte(dest, field.getByte(src));
-		} else if (fieldType == short.class) {
-			field.setShort(dest, field.getShort(src));
-		} else if (fieldType == int.class) {
-			field.setInt(dest, field.getInt(src));
-		} else if (fieldType == long.class) {
-			field.setLong(dest, field.getLong(src));
-		} else if (fieldType == float.class) {
-			field.setFloat(dest, field.getFloat(src));
-		} else if (fieldType == double.class) {
-			field.setDouble(dest, field.getDouble(src));
-		} else if (fieldType == char.class) {
-			field.setChar(dest, field.getChar(src));
-		} else {
-			field.set(dest, copy(fieldType, (R) field.get(src), (R) field.get(dest), predicate));
+		return update(src, dest, predicate, new UpdateStatistics());
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <T> T update(@Nullable T src, @Nullable T dest, @Nullable Predicate<Field> predicate,
+			UpdateStatistics statistics) throws ReflectiveOperationException {
+		if (src == null) {
+			return null;
+		}
+
+		return update((Class<T>) src.getClass(), src, dest, predicate, statistics);
+	}
+
+	public static <T> T update(Class<T> type, @Nullable T src, @Nullable T dest, @Nullable Predicate<Field> predicate,
+			UpdateStatistics statistics) throws ReflectiveOperationException {
+		if (src == null) {
+			return null;
+		}
+
+		if (isImmutable(type)) {
+			return src.equals(dest) ? dest : src;
+		}
+
+		if (type.isArray()) {
+			return updateArray(type, src, dest, predicate, statistics);
+		}
+
+		if (src instanceof Collection || src instanceof Map) {
+			if (dest != null && EqualsUtil.valueEquals(type, src, dest, predicate)) {
+				return dest;
+			}
+			T result = copyContainer(type, src, dest, predicate);
+			if (result != dest) {
+				statistics.allocations++;
+			}
+			statistics.objectsWritten++;
+			return result;
+		}
+
+		return updateObject(type, src, dest, predicate, statistics);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T, R> T updateArray(Class<T> type, T src, @Nullable T dest, @Nullable Predicate<Field> predicate,
+			UpdateStatistics statistics) throws ReflectiveOperationException {
+		Class<R> componentType = (Class<R>) type.getComponentType();
+		int length = Array.getLength(src);
+		T result = dest;
+		boolean changed = false;
+		if (result == null || Array.getLength(result) != length) {
+			result = (T) Array.newInstance(componentType, length);
+			statistics.allocations++;
+			changed = true;
+		}
+		Instrumentation instrumentation = CopyUtil.instrumentation;
+		if (instrumentation != Instrumentation.NONE) {
+			instrumentation.arrayCopied(type, length, !changed);
 		}
+		if (componentType.isPrimitive()) {
+			if (!changed && EqualsUtil.valueEquals(type, src, result, predicate)) {
+				return result;
+			}
+			System.arraycopy(src, 0, result, 0, length);
+			statistics.fieldsWritten += length;
+			statistics.objectsWritten++;
+			return result;
+		}
+		Object[] srcArray = (Object[]) src;
+		Object[] destArray = (Object[]) result;
+		for (int i = 0; i < length; i++) {
+			R current = (R) destArray[i];
+			R value = update(componentType, (R) srcArray[i], current, predicate, statistics);
+			if (value != current) {
+				destArray[i] = value;
+				statistics.fieldsWritten++;
+				changed = true;
+			}
+		}
+		if (changed) {
+			statistics.objectsWritten++;
+		}
+		return result;
+	}
+
+	private static <T> T updateObject(Class<T> type, T src, @Nullable T dest, @Nullable Predicate<Field> predicate,
+			UpdateStatistics statistics) throws ReflectiveOperationException {
+		Instrumentation instrumentation = CopyUtil.instrumentation;
+		long start = instrumentation != Instrumentation.NONE ? System.nanoTime() : 0L;
+		T result = dest;
+		boolean changed = false;
+		if (result == null) {
+			result = type.newInstance();
+			statistics.allocations++;
+			changed = true;
+		}
+		FieldPlan plan = FieldPlan.get(type, predicate);
+		FieldAccessor.Backend backend = accessorBackend;
+		for (int i = 0; i < plan.size(); i++) {
+			if (updateField(src, result, plan.get(i), backend, predicate, statistics)) {
+				statistics.fieldsWritten++;
+				changed = true;
+			}
+		}
+		if (changed) {
+			statistics.objectsWritten++;
+		}
+		if (instrumentation != Instrumentation.NONE) {
+			instrumentation.objectCopied(type, System.nanoTime() - start, dest != null);
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T, R> boolean updateField(T src, T dest, FieldPlan.Entry entry, FieldAccessor.Backend backend,
+			@Nullable Predicate<Field> predicate, UpdateStatistics statistics) throws ReflectiveOperationException {
+		FieldAccessor accessor = entry.accessor(backend);
+		if (entry.kind().isPrimitive()) {
+			return accessor.update(src, dest);
+		}
+		Class<R> fieldType = (Class<R>) entry.type();
+		R current = (R) accessor.get(dest);
+		R value = update(fieldType, (R) accessor.get(src), current, predicate, statistics);
+		if (value == current) {
+			return false;
+		}
+		accessor.set(dest, value);
+		return true;
+	}
+
+	/**
+	 * Counts what {@link CopyUtil#update} actually wrote. Objects include arrays; an object counts as written if it was
+	 * allocated or at least one of its fields or elements was written.
+	 */
+	public static final class UpdateStatistics {
+
+		private int fieldsWritten;
+		private int objectsWritten;
+		private int allocations;
+
+		public int getFieldsWritten() {
+			return fieldsWritten;
+		}
+
+		public int getObjectsWritten() {
+			return objectsWritten;
+		}
+
+		public int getAllocations() {
+			return allocations;
+		}
+
+		public void reset() {
+			fieldsWritten = 0;
+			objectsWritten = 0;
+			allocations = 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("fields=%d objects=%d allocations=%d", fieldsWritten, objectsWritten, allocations);
+		}
+
+	}
+
+	/**
+	 * Overrides the immutability analysis. Instances of immutable classes are shared instead of copied.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface Immutable {
+
+		boolean value() default true;
+
 	}
 
-	private static Stream<Field> streamFields(Class<?> type, @Nullable Predicate<Field> predicate) {
-		Stream<Field> fields = StreamUtil.streamDeclaredFields(type)
-				.filter(field -> !Modifier.isStatic(field.getModifiers()));
-		if (predicate != null) {
-			fields = fields.filter(predicate);
+	/**
+	 * Copies a range of an array, splitting it in halves until it is small enough. Every element is written to its own
+	 * index, so the result doesn't depend on scheduling. The first error is recorded and stops the remaining batches.
+	 */
+	@SuppressWarnings("serial")
+	private static class CopyTask extends RecursiveAction {
+
+		private final Class<?> componentType;
+		private final Object[] src;
+		private final Object[] dest;
+		private final int from;
+		private final int to;
+		@Nullable
+		private final Predicate<Field> predicate;
+		private final AtomicReference<ReflectiveOperationException> error;
+
+		CopyTask(Class<?> componentType, Object[] src, Object[] dest, int from, int to,
+				@Nullable Predicate<Field> predicate, AtomicReference<ReflectiveOperationException> error) {
+			this.componentType = componentType;
+			this.src = src;
+			this.dest = dest;
+			this.from = from;
+			this.to = to;
+			this.predicate = predicate;
+			this.error = error;
 		}
-		fields = fields.sorted(Comparator.comparing(Field::getName));
-		return fields;
+
+		@Override
+		protected void compute() {
+			if (error.get() != null) {
+				return;
+			}
+			if (to - from > PARALLEL_BATCH_SIZE) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new CopyTask(componentType, src, dest, from, mid, predicate, error),
+						new CopyTask(componentType, src, dest, mid, to, predicate, error));
+				return;
+			}
+			try {
+				copyElements(componentType, src, dest, from, to, predicate);
+			} catch (ReflectiveOperationException e) {
+				error.compareAndSet(null, e);
+			}
+		}
+
 	}
 
 }
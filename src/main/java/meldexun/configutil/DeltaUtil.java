@@ -0,0 +1,295 @@
+package meldexun.configutil;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Writes and applies the differences between two instances of the same class. An object delta starts with a bitmask
+ * over the entries of its {@link FieldPlan} followed by the values of the changed entries. Changed references are
+ * prefixed with a boolean which tells whether a nested delta or a full {@link ByteBufUtil} value follows. Arrays of
+ * equal length are diffed element-wise in the same way, after their length, and fail to apply to arrays of another
+ * length. Changed collections and maps are always written in full.
+ */
+public class DeltaUtil {
+
+	public static <T> void write(Class<T> type, T previous, T current, ByteBuf buffer,
+			@Nullable Predicate<Field> predicate, WireFormat format) throws ReflectiveOperationException {
+		SerializationContext context = new SerializationContext(predicate, format);
+		context.writeFieldTable(type, buffer);
+		writeValue(type, previous, current, buffer, context);
+	}
+
+	public static <T> T read(Class<T> type, T dest, ByteBuf buffer, @Nullable Predicate<Field> predicate,
+			WireFormat format) throws ReflectiveOperationException {
+		SerializationContext context = new SerializationContext(predicate, format);
+		context.readFieldTable(buffer);
+		return readValue(type, dest, buffer, context);
+	}
+
+	private static boolean isDiffable(Class<?> type, Object previous, Object current) {
+		if (FieldPlan.Kind.ofBoxed(type) != null || type == String.class || ByteBufUtil.getSerializer(type) != null
+				|| Enum.class.isAssignableFrom(type) || previous instanceof Collection || previous instanceof Map) {
+			return false;
+		}
+		return !type.isArray() || Array.getLength(previous) == Array.getLength(current);
+	}
+
+	private static <T> void writeReference(Class<T> type, @Nullable T previous, @Nullable T current, ByteBuf buffer,
+			SerializationContext context) throws ReflectiveOperationException {
+		boolean delta = previous != null && current != null && isDiffable(type, previous, current);
+		buffer.writeBoolean(delta);
+		if (delta) {
+			writeValue(type, previous, current, buffer, context);
+		} else {
+			ByteBufUtil.write(type, current, buffer, context);
+		}
+	}
+
+	private static <T> void writeValue(Class<T> type, T previous, T current, ByteBuf buffer,
+			SerializationContext context) throws ReflectiveOperationException {
+		if (type.isArray()) {
+			writeArray(type, previous, current, buffer, context);
+		} else {
+			writeObject(type, previous, current, buffer, context);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T, R> void writeArray(Class<T> type, T previous, T current, ByteBuf buffer,
+			SerializationContext context) throws ReflectiveOperationException {
+		Class<R> componentType = (Class<R>) type.getComponentType();
+		FieldPlan.Kind componentKind = FieldPlan.Kind.of(componentType);
+		int length = Array.getLength(current);
+		context.writeLength(buffer, length);
+		int bitmap = buffer.writerIndex();
+		buffer.writeZero((length + 7) >> 3);
+		for (int i = 0; i < length; i++) {
+			if (componentKind.isPrimitive()) {
+				if (primitiveEquals(componentKind, previous, current, i)) {
+					continue;
+				}
+				setBit(buffer, bitmap, i);
+				writeComponent(componentKind, current, i, buffer, context);
+			} else {
+				R p = ((R[]) previous)[i];
+				R c = ((R[]) current)[i];
+				if (EqualsUtil.valueEquals(componentType, p, c, context.predicate)) {
+					continue;
+				}
+				setBit(buffer, bitmap, i);
+				writeReference(componentType, p, c, buffer, context);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T, R> void writeObject(Class<T> type, T previous, T current, ByteBuf buffer,
+			SerializationContext context) throws ReflectiveOperationException {
+		FieldPlan plan = FieldPlan.get(type, context.predicate);
+		int bitmap = buffer.writerIndex();
+		buffer.writeZero((plan.size() + 7) >> 3);
+		for (int i = 0; i < plan.size(); i++) {
+			FieldPlan.Entry entry = plan.get(i);
+			Field field = entry.field();
+			if (entry.kind().isPrimitive()) {
+				if (EqualsUtil.primitiveEquals(entry, previous, current)) {
+					continue;
+				}
+				setBit(buffer, bitmap, i);
+				ByteBufUtil.writeField(current, entry, buffer, context);
+			} else if (entry.valueType().isContainer()) {
+				R c = (R) field.get(current);
+				if (EqualsUtil.valueEquals((Class<R>) entry.type(), (R) field.get(previous), c, context.predicate)) {
+					continue;
+				}
+				setBit(buffer, bitmap, i);
+				buffer.writeBoolean(false);
+				ByteBufUtil.writeReference(entry.valueType(), c, buffer, context);
+			} else {
+				Class<R> fieldType = (Class<R>) entry.type();
+				R p = (R) field.get(previous);
+				R c = (R) field.get(current);
+				if (EqualsUtil.valueEquals(fieldType, p, c, context.predicate)) {
+					continue;
+				}
+				setBit(buffer, bitmap, i);
+				writeReference(fieldType, p, c, buffer, context);
+			}
+		}
+	}
+
+	private static void setBit(ByteBuf buffer, int bitmap, int i) {
+		int index = bitmap + (i >> 3);
+		buffer.setByte(index, buffer.getByte(index) | (1 << (i & 7)));
+	}
+
+	private static boolean isBitSet(ByteBuf buffer, int bitmap, int i) {
+		return (buffer.getByte(bitmap + (i >> 3)) & (1 << (i & 7))) != 0;
+	}
+
+	private static void writeComponent(FieldPlan.Kind componentKind, Object array, int index, ByteBuf buffer,
+			SerializationContext context) {
+		switch (componentKind) {
+		case BOOLEAN:
+			buffer.writeBoolean(((boolean[]) array)[index]);
+			break;
+		case BYTE:
+			buffer.writeByte(((byte[]) array)[index]);
+			break;
+		case SHORT:
+			context.writeShort(buffer, ((short[]) array)[index]);
+			break;
+		case INT:
+			context.writeInt(buffer, ((int[]) array)[index]);
+			break;
+		case LONG:
+			context.writeLong(buffer, ((long[]) array)[index]);
+			break;
+		case FLOAT:
+			buffer.writeFloat(((float[]) array)[index]);
+			break;
+		case DOUBLE:
+			buffer.writeDouble(((double[]) array)[index]);
+			break;
+		case CHAR:
+			context.writeChar(buffer, ((char[]) array)[index]);
+			break;
+		default:
+			throw new IllegalArgumentException(componentKind.toString());
+		}
+	}
+
+	private static void readComponent(FieldPlan.Kind componentKind, Object array, int index, ByteBuf buffer,
+			SerializationContext context) {
+		switch (componentKind) {
+		case BOOLEAN:
+			((boolean[]) array)[index] = buffer.readBoolean();
+			break;
+		case BYTE:
+			((byte[]) array)[index] = buffer.readByte();
+			break;
+		case SHORT:
+			((short[]) array)[index] = context.readShort(buffer);
+			break;
+		case INT:
+			((int[]) array)[index] = context.readInt(buffer);
+			break;
+		case LONG:
+			((long[]) array)[index] = context.readLong(buffer);
+			break;
+		case FLOAT:
+			((float[]) array)[index] = buffer.readFloat();
+			break;
+		case DOUBLE:
+			((double[]) array)[index] = buffer.readDouble();
+			break;
+		case CHAR:
+			((char[]) array)[index] = context.readChar(buffer);
+			break;
+		default:
+			throw new IllegalArgumentException(componentKind.toString());
+		}
+	}
+
+	private static <T> T readReference(Class<T> type, @Nullable T dest, ByteBuf buffer, SerializationContext context)
+			throws ReflectiveOperationException {
+		if (!buffer.readBoolean()) {
+			return ByteBufUtil.read(type, dest, buffer, context);
+		}
+		if (dest == null) {
+			throw new IllegalStateException("Received delta for missing " + type.getName());
+		}
+		return readValue(type, dest, buffer, context);
+	}
+
+	private static <T> T readValue(Class<T> type, T dest, ByteBuf buffer, SerializationContext context)
+			throws ReflectiveOperationException {
+		if (type.isArray()) {
+			readArray(type, dest, buffer, context);
+		} else {
+			readObject(type, dest, buffer, context);
+		}
+		return dest;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T, R> void readArray(Class<T> type, T dest, ByteBuf buffer, SerializationContext context)
+			throws ReflectiveOperationException {
+		Class<R> componentType = (Class<R>) type.getComponentType();
+		FieldPlan.Kind componentKind = FieldPlan.Kind.of(componentType);
+		int length = context.readLength(buffer);
+		if (length != Array.getLength(dest)) {
+			throw new IllegalStateException("Received delta of length " + length + " for " + type.getName()
+					+ " of length " + Array.getLength(dest));
+		}
+		int bitmap = buffer.readerIndex();
+		buffer.skipBytes((length + 7) >> 3);
+		for (int i = 0; i < length; i++) {
+			if (!isBitSet(buffer, bitmap, i)) {
+				continue;
+			}
+			if (componentKind.isPrimitive()) {
+				readComponent(componentKind, dest, i, buffer, context);
+			} else {
+				R[] array = (R[]) dest;
+				array[i] = readReference(componentType, array[i], buffer, context);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T, R> void readObject(Class<T> type, T dest, ByteBuf buffer, SerializationContext context)
+			throws ReflectiveOperationException {
+		FieldPlan plan = FieldPlan.get(type, context.predicate);
+		int bitmap = buffer.readerIndex();
+		buffer.skipBytes((plan.size() + 7) >> 3);
+		for (int i = 0; i < plan.size(); i++) {
+			if (!isBitSet(buffer, bitmap, i)) {
+				continue;
+			}
+			FieldPlan.Entry entry = plan.get(i);
+			Field field = entry.field();
+			if (entry.kind().isPrimitive()) {
+				ByteBufUtil.readField(dest, entry, buffer, context);
+			} else if (entry.valueType().isContainer()) {
+				if (buffer.readBoolean()) {
+					throw new IllegalStateException("Received delta for container " + field);
+				}
+				field.set(dest, ByteBufUtil.readReference(entry.valueType(), field.get(dest), buffer, context));
+			} else {
+				field.set(dest, readReference((Class<R>) entry.type(), (R) field.get(dest), buffer, context));
+			}
+		}
+	}
+
+	private static boolean primitiveEquals(FieldPlan.Kind componentKind, Object a, Object b, int index) {
+		switch (componentKind) {
+		case BOOLEAN:
+			return ((boolean[]) a)[index] == ((boolean[]) b)[index];
+		case BYTE:
+			return ((byte[]) a)[index] == ((byte[]) b)[index];
+		case SHORT:
+			return ((short[]) a)[index] == ((short[]) b)[index];
+		case INT:
+			return ((int[]) a)[index] == ((int[]) b)[index];
+		case LONG:
+			return ((long[]) a)[index] == ((long[]) b)[index];
+		case FLOAT:
+			return Float.floatToIntBits(((float[]) a)[index]) == Float.floatToIntBits(((float[]) b)[index]);
+		case DOUBLE:
+			return Double.doubleToLongBits(((double[]) a)[index]) == Double.doubleToLongBits(((double[]) b)[index]);
+		case CHAR:
+			return ((char[]) a)[index] == ((char[]) b)[index];
+		default:
+			throw new IllegalArgumentException(componentKind.toString());
+		}
+	}
+
+}
@@ -0,0 +1,167 @@
+package meldexun.configutil;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+/**
+ * Structural equality of values as {@link CopyUtil} and {@link ByteBufUtil} see them: objects are compared field by
+ * field over their {@link FieldPlan}, arrays, collections and maps element by element and values with a serializer,
+ * strings, boxed primitives and enums with {@link Object#equals(Object)}.
+ */
+public class EqualsUtil {
+
+	public static <T> boolean valueEquals(Class<T> type, @Nullable T a, @Nullable T b,
+			@Nullable Predicate<Field> predicate) throws ReflectiveOperationException {
+		if (a == b) {
+			return true;
+		}
+		if (a == null || b == null) {
+			return false;
+		}
+		if (type.isArray()) {
+			return arrayEquals(type, a, b, predicate);
+		}
+		if (FieldPlan.Kind.ofBoxed(type) != null || type == String.class || ByteBufUtil.getSerializer(type) != null
+				|| Enum.class.isAssignableFrom(type)) {
+			return a.equals(b);
+		}
+		if (a instanceof Collection || a instanceof Map) {
+			return containerEquals(a, b, predicate);
+		}
+		FieldPlan plan = FieldPlan.get(type, predicate);
+		for (int i = 0; i < plan.size(); i++) {
+			if (!fieldEquals(plan.get(i), a, b, predicate)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Elements are compared like values of their runtime class. Sets are compared with {@link Set#equals(Object)} and
+	 * thus rely on the elements implementing it.
+	 */
+	private static boolean containerEquals(Object a, Object b, @Nullable Predicate<Field> predicate)
+			throws ReflectiveOperationException {
+		if (!ValueType.isCompatible(a, b)) {
+			return false;
+		}
+		if (a instanceof Map) {
+			Map<?, ?> mapA = (Map<?, ?>) a;
+			Map<?, ?> mapB = (Map<?, ?>) b;
+			if (mapA.size() != mapB.size()) {
+				return false;
+			}
+			for (Map.Entry<?, ?> entry : mapA.entrySet()) {
+				if (!mapB.containsKey(entry.getKey()) || !elementEquals(entry.getValue(), mapB.get(entry.getKey()),
+						predicate)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (a instanceof Set) {
+			return a.equals(b);
+		}
+		Collection<?> collectionA = (Collection<?>) a;
+		Collection<?> collectionB = (Collection<?>) b;
+		if (collectionA.size() != collectionB.size()) {
+			return false;
+		}
+		Iterator<?> iteratorB = collectionB.iterator();
+		for (Object element : collectionA) {
+			if (!elementEquals(element, iteratorB.next(), predicate)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <R> boolean elementEquals(@Nullable Object a, @Nullable Object b,
+			@Nullable Predicate<Field> predicate) throws ReflectiveOperationException {
+		if (a == null || b == null || a.getClass() != b.getClass()) {
+			return a == b;
+		}
+		return valueEquals((Class<R>) a.getClass(), (R) a, (R) b, predicate);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T, R> boolean arrayEquals(Class<T> type, T a, T b, @Nullable Predicate<Field> predicate)
+			throws ReflectiveOperationException {
+		Class<R> componentType = (Class<R>) type.getComponentType();
+		switch (FieldPlan.Kind.of(componentType)) {
+		case BOOLEAN:
+			return Arrays.equals((boolean[]) a, (boolean[]) b);
+		case BYTE:
+			return Arrays.equals((byte[]) a, (byte[]) b);
+		case SHORT:
+			return Arrays.equals((short[]) a, (short[]) b);
+		case INT:
+			return Arrays.equals((int[]) a, (int[]) b);
+		case LONG:
+			return Arrays.equals((long[]) a, (long[]) b);
+		case FLOAT:
+			return Arrays.equals((float[]) a, (float[]) b);
+		case DOUBLE:
+			return Arrays.equals((double[]) a, (double[]) b);
+		case CHAR:
+			return Arrays.equals((char[]) a, (char[]) b);
+		default:
+			R[] arrayA = (R[]) a;
+			R[] arrayB = (R[]) b;
+			if (arrayA.length != arrayB.length) {
+				return false;
+			}
+			for (int i = 0; i < arrayA.length; i++) {
+				if (!valueEquals(componentType, arrayA[i], arrayB[i], predicate)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <R> boolean fieldEquals(FieldPlan.Entry entry, Object a, Object b,
+			@Nullable Predicate<Field> predicate) throws ReflectiveOperationException {
+		if (entry.kind().isPrimitive()) {
+			return primitiveEquals(entry, a, b);
+		}
+		Field field = entry.field();
+		return valueEquals((Class<R>) entry.type(), (R) field.get(a), (R) field.get(b), predicate);
+	}
+
+	static boolean primitiveEquals(FieldPlan.Entry entry, Object a, Object b)
+			throws ReflectiveOperationException {
+		Field field = entry.field();
+		switch (entry.kind()) {
+		case BOOLEAN:
+			return field.getBoolean(a) == field.getBoolean(b);
+		case BYTE:
+			return field.getByte(a) == field.getByte(b);
+		case SHORT:
+			return field.getShort(a) == field.getShort(b);
+		case INT:
+			return field.getInt(a) == field.getInt(b);
+		case LONG:
+			return field.getLong(a) == field.getLong(b);
+		case FLOAT:
+			return Float.floatToIntBits(field.getFloat(a)) == Float.floatToIntBits(field.getFloat(b));
+		case DOUBLE:
+			return Double.doubleToLongBits(field.getDouble(a)) == Double.doubleToLongBits(field.getDouble(b));
+		case CHAR:
+			return field.getChar(a) == field.getChar(b);
+		default:
+			throw new IllegalArgumentException(entry.kind().toString());
+		}
+	}
+
+}
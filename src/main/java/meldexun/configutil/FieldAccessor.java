@@ -0,0 +1,283 @@
+package meldexun.configutil;
+
+import java.lang.reflect.Field;
+
+public abstract class FieldAccessor {
+
+	protected final Field field;
+	protected final FieldPlan.Kind kind;
+
+	protected FieldAccessor(Field field) {
+		this.field = field;
+		this.kind = FieldPlan.Kind.of(field.getType());
+	}
+
+	public abstract boolean getBoolean(Object obj) throws ReflectiveOperationException;
+
+	public abstract byte getByte(Object obj) throws ReflectiveOperationException;
+
+	public abstract short getShort(Object obj) throws ReflectiveOperationException;
+
+	public abstract int getInt(Object obj) throws ReflectiveOperationException;
+
+	public abstract long getLong(Object obj) throws ReflectiveOperationException;
+
+	public abstract float getFloat(Object obj) throws ReflectiveOperationException;
+
+	public abstract double getDouble(Object obj) throws ReflectiveOperationException;
+
+	public abstract char getChar(Object obj) throws ReflectiveOperationException;
+
+	public abstract Object get(Object obj) throws ReflectiveOperationException;
+
+	public abstract void setBoolean(Object obj, boolean value) throws ReflectiveOperationException;
+
+	public abstract void setByte(Object obj, byte value) throws ReflectiveOperationException;
+
+	public abstract void setShort(Object obj, short value) throws ReflectiveOperationException;
+
+	public abstract void setInt(Object obj, int value) throws ReflectiveOperationException;
+
+	public abstract void setLong(Object obj, long value) throws ReflectiveOperationException;
+
+	public abstract void setFloat(Object obj, float value) throws ReflectiveOperationException;
+
+	public abstract void setDouble(Object obj, double value) throws ReflectiveOperationException;
+
+	public abstract void setChar(Object obj, char value) throws ReflectiveOperationException;
+
+	public abstract void set(Object obj, Object value) throws ReflectiveOperationException;
+
+	public void copy(Object src, Object dest) throws ReflectiveOperationException {
+		switch (kind) {
+		case BOOLEAN:
+			setBoolean(dest, getBoolean(src));
+			break;
+		case BYTE:
+			setByte(dest, getByte(src));
+			break;
+		case SHORT:
+			setShort(dest, getShort(src));
+			break;
+		case INT:
+			setInt(dest, getInt(src));
+			break;
+		case LONG:
+			setLong(dest, getLong(src));
+			break;
+		case FLOAT:
+			setFloat(dest, getFloat(src));
+			break;
+		case DOUBLE:
+			setDouble(dest, getDouble(src));
+			break;
+		case CHAR:
+			setChar(dest, getChar(src));
+			break;
+		default:
+			set(dest, get(src));
+			break;
+		}
+	}
+
+	/**
+	 * Copies the value from {@code src} to {@code dest} unless both already hold the same value. Reference fields are
+	 * compared by identity, floating point fields bitwise.
+	 * 
+	 * @return {@code true} if {@code dest} was written
+	 */
+	public boolean update(Object src, Object dest) throws ReflectiveOperationException {
+		switch (kind) {
+		case BOOLEAN: {
+			boolean value = getBoolean(src);
+			if (value == getBoolean(dest)) {
+				return false;
+			}
+			setBoolean(dest, value);
+			return true;
+		}
+		case BYTE: {
+			byte value = getByte(src);
+			if (value == getByte(dest)) {
+				return false;
+			}
+			setByte(dest, value);
+			return true;
+		}
+		case SHORT: {
+			short value = getShort(src);
+			if (value == getShort(dest)) {
+				return false;
+			}
+			setShort(dest, value);
+			return true;
+		}
+		case INT: {
+			int value = getInt(src);
+			if (value == getInt(dest)) {
+				return false;
+			}
+			setInt(dest, value);
+			return true;
+		}
+		case LONG: {
+			long value = getLong(src);
+			if (value == getLong(dest)) {
+				return false;
+			}
+			setLong(dest, value);
+			return true;
+		}
+		case FLOAT: {
+			float value = getFloat(src);
+			if (Float.floatToIntBits(value) == Float.floatToIntBits(getFloat(dest))) {
+				return false;
+			}
+			setFloat(dest, value);
+			return true;
+		}
+		case DOUBLE: {
+			double value = getDouble(src);
+			if (Double.doubleToLongBits(value) == Double.doubleToLongBits(getDouble(dest))) {
+				return false;
+			}
+			setDouble(dest, value);
+			return true;
+		}
+		case CHAR: {
+			char value = getChar(src);
+			if (value == getChar(dest)) {
+				return false;
+			}
+			setChar(dest, value);
+			return true;
+		}
+		default: {
+			Object value = get(src);
+			if (value == get(dest)) {
+				return false;
+			}
+			set(dest, value);
+			return true;
+		}
+		}
+	}
+
+	public enum Backend {
+
+		REFLECTION {
+			@Override
+			FieldAccessor create(Field field) {
+				return new ReflectionAccessor(field);
+			}
+		},
+		METHOD_HANDLE {
+			@Override
+			FieldAccessor create(Field field) throws ReflectiveOperationException {
+				return AccessorGenerator.get(field);
+			}
+		};
+
+		abstract FieldAccessor create(Field field) throws ReflectiveOperationException;
+
+	}
+
+	private static class ReflectionAccessor extends FieldAccessor {
+
+		public ReflectionAccessor(Field field) {
+			super(field);
+		}
+
+		@Override
+		public boolean getBoolean(Object obj) throws ReflectiveOperationException {
+			return field.getBoolean(obj);
+		}
+
+		@Override
+		public byte getByte(Object obj) throws ReflectiveOperationException {
+			return field.getByte(obj);
+		}
+
+		@Override
+		public short getShort(Object obj) throws ReflectiveOperationException {
+			return field.getShort(obj);
+		}
+
+		@Override
+		public int getInt(Object obj) throws ReflectiveOperationException {
+			return field.getInt(obj);
+		}
+
+		@Override
+		public long getLong(Object obj) throws ReflectiveOperationException {
+			return field.getLong(obj);
+		}
+
+		@Override
+		public float getFloat(Object obj) throws ReflectiveOperationException {
+			return field.getFloat(obj);
+		}
+
+		@Override
+		public double getDouble(Object obj) throws ReflectiveOperationException {
+			return field.getDouble(obj);
+		}
+
+		@Override
+		public char getChar(Object obj) throws ReflectiveOperationException {
+			return field.getChar(obj);
+		}
+
+		@Override
+		public Object get(Object obj) throws ReflectiveOperationException {
+			return field.get(obj);
+		}
+
+		@Override
+		public void setBoolean(Object obj, boolean value) throws ReflectiveOperationException {
+			field.setBoolean(obj, value);
+		}
+
+		@Override
+		public void setByte(Object obj, byte value) throws ReflectiveOperationException {
+			field.setByte(obj, value);
+		}
+
+		@Override
+		public void setShort(Object obj, short value) throws ReflectiveOperationException {
+			field.setShort(obj, value);
+		}
+
+		@Override
+		public void setInt(Object obj, int value) throws ReflectiveOperationException {
+			field.setInt(obj, value);
+		}
+
+		@Override
+		public void setLong(Object obj, long value) throws ReflectiveOperationException {
+			field.setLong(obj, value);
+		}
+
+		@Override
+		public void setFloat(Object obj, float value) throws ReflectiveOperationException {
+			field.setFloat(obj, value);
+		}
+
+		@Override
+		public void setDouble(Object obj, double value) throws ReflectiveOperationException {
+			field.setDouble(obj, value);
+		}
+
+		@Override
+		public void setChar(Object obj, char value) throws ReflectiveOperationException {
+			field.setChar(obj, value);
+		}
+
+		@Override
+		public void set(Object obj, Object value) throws ReflectiveOperationException {
+			field.set(obj, value);
+		}
+
+	}
+
+}
@@ -0,0 +1,231 @@
+package meldexun.configutil;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+public final class FieldPlan {
+
+	private static final PredicateCache<FieldPlan> CACHE = new PredicateCache<>(FieldPlan::create);
+
+	private final Class<?> type;
+	private final Entry[] entries;
+	private final int booleanCount;
+	private final int nullableCount;
+
+	private FieldPlan(Class<?> type, Entry[] entries) {
+		this.type = type;
+		this.entries = entries;
+		this.booleanCount = (int) Arrays.stream(entries).filter(entry -> entry.kind == Kind.BOOLEAN).count();
+		this.nullableCount = (int) Arrays.stream(entries).filter(Entry::isNullable).count();
+	}
+
+	/**
+	 * Plans are cached per class for {@code null}, the predicates in {@link ConfigUtil} and predicates passed to
+	 * {@link #registerPredicate(Predicate)}. Plans for other predicates are created on every call.
+	 */
+	public static FieldPlan get(Class<?> type, @Nullable Predicate<Field> predicate) {
+		return CACHE.get(type, predicate);
+	}
+
+	/**
+	 * Caches plans, generated serializers and field tables for {@code predicate}. Only register predicates stored in
+	 * constants, as they are never released.
+	 */
+	public static void registerPredicate(Predicate<Field> predicate) {
+		PredicateCache.register(predicate);
+	}
+
+	private static FieldPlan create(Class<?> type, @Nullable Predicate<Field> predicate) {
+		Entry[] entries = StreamUtil.streamDeclaredFields(type)
+				.filter(field -> !Modifier.isStatic(field.getModifiers()))
+				.filter(predicate != null ? predicate : field -> true)
+				.sorted(Comparator.comparing(Field::getName))
+				.map(Entry::new)
+				.toArray(Entry[]::new);
+		return new FieldPlan(type, entries);
+	}
+
+	public Class<?> type() {
+		return type;
+	}
+
+	public int size() {
+		return entries.length;
+	}
+
+	public Entry get(int index) {
+		return entries[index];
+	}
+
+	/**
+	 * Returns the entry of the field named {@code name}, or {@code null} if this plan doesn't contain it.
+	 */
+	@Nullable
+	public Entry get(String name) {
+		int low = 0;
+		int high = entries.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = entries[mid].field.getName().compareTo(name);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return entries[mid];
+			}
+		}
+		return null;
+	}
+
+	public int booleanCount() {
+		return booleanCount;
+	}
+
+	public int nullableCount() {
+		return nullableCount;
+	}
+
+	public enum Kind {
+
+		BOOLEAN(1), BYTE(1), SHORT(2), INT(4), LONG(8), FLOAT(4), DOUBLE(8), CHAR(2), ARRAY(-1), OBJECT(-1);
+
+		private final int size;
+
+		private Kind(int size) {
+			this.size = size;
+		}
+
+		public static Kind of(Class<?> type) {
+			if (type == boolean.class) {
+				return BOOLEAN;
+			}
+			if (type == byte.class) {
+				return BYTE;
+			}
+			if (type == short.class) {
+				return SHORT;
+			}
+			if (type == int.class) {
+				return INT;
+			}
+			if (type == long.class) {
+				return LONG;
+			}
+			if (type == float.class) {
+				return FLOAT;
+			}
+			if (type == double.class) {
+				return DOUBLE;
+			}
+			if (type == char.class) {
+				return CHAR;
+			}
+			if (type.isArray()) {
+				return ARRAY;
+			}
+			return OBJECT;
+		}
+
+		@Nullable
+		public static Kind ofBoxed(Class<?> type) {
+			if (type == Boolean.class) {
+				return BOOLEAN;
+			}
+			if (type == Byte.class) {
+				return BYTE;
+			}
+			if (type == Short.class) {
+				return SHORT;
+			}
+			if (type == Integer.class) {
+				return INT;
+			}
+			if (type == Long.class) {
+				return LONG;
+			}
+			if (type == Float.class) {
+				return FLOAT;
+			}
+			if (type == Double.class) {
+				return DOUBLE;
+			}
+			if (type == Character.class) {
+				return CHAR;
+			}
+			return null;
+		}
+
+		public boolean isPrimitive() {
+			return size > 0;
+		}
+
+		public int size() {
+			return size;
+		}
+
+	}
+
+	public static final class Entry {
+
+		private final Field field;
+		private final Class<?> type;
+		private final Kind kind;
+		private final ValueType valueType;
+		private final boolean nonNull;
+		private final AtomicReferenceArray<FieldAccessor> accessors =
+				new AtomicReferenceArray<>(FieldAccessor.Backend.values().length);
+
+		private Entry(Field field) {
+			field.setAccessible(true);
+			this.field = field;
+			this.type = field.getType();
+			this.kind = Kind.of(type);
+			this.valueType = ValueType.of(field.getGenericType());
+			this.nonNull = !kind.isPrimitive() && ByteBufUtil.isNonNull(field);
+		}
+
+		public Field field() {
+			return field;
+		}
+
+		public Class<?> type() {
+			return type;
+		}
+
+		public Kind kind() {
+			return kind;
+		}
+
+		ValueType valueType() {
+			return valueType;
+		}
+
+		public boolean isNonNull() {
+			return nonNull;
+		}
+
+		public boolean isNullable() {
+			return !kind.isPrimitive() && !nonNull;
+		}
+
+		public FieldAccessor accessor(FieldAccessor.Backend backend) throws ReflectiveOperationException {
+			FieldAccessor accessor = accessors.get(backend.ordinal());
+			if (accessor == null) {
+				accessor = backend.create(field);
+				if (!accessors.compareAndSet(backend.ordinal(), null, accessor)) {
+					accessor = accessors.get(backend.ordinal());
+				}
+			}
+			return accessor;
+		}
+
+	}
+
+}
@@ -0,0 +1,126 @@
+package meldexun.configutil;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Names of the fields in the plans of a class and of all classes reachable from its declared field types, written in
+ * front of a {@link WireFormat.Feature#TAGGED} payload. Fields are tagged with their index in this table, so a tag is
+ * usually a single byte and stays resolvable when the field holding the nested object that introduced it is skipped.
+ */
+final class FieldTable {
+
+	private static final PredicateCache<FieldTable> CACHE = new PredicateCache<>(FieldTable::create);
+
+	private final String[] names;
+	private final Map<String, Integer> ids;
+
+	private FieldTable(Set<String> names) {
+		this.names = names.toArray(new String[0]);
+		this.ids = new HashMap<>();
+		for (int i = 0; i < this.names.length; i++) {
+			ids.put(this.names[i], i);
+		}
+	}
+
+	static FieldTable get(Class<?> type, @Nullable Predicate<Field> predicate) {
+		return CACHE.get(type, predicate);
+	}
+
+	private static FieldTable create(Class<?> type, @Nullable Predicate<Field> predicate) {
+		Set<String> names = new LinkedHashSet<>();
+		collect(type, predicate, names, new HashSet<>());
+		return new FieldTable(names);
+	}
+
+	/**
+	 * Values are always written with their declared type, so the declared types are enough to find every plan a
+	 * payload can contain.
+	 */
+	private static void collect(Type type, @Nullable Predicate<Field> predicate, Set<String> names,
+			Set<Class<?>> visited) {
+		if (type instanceof ParameterizedType) {
+			for (Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+				collect(argument, predicate, names, visited);
+			}
+			return;
+		}
+		if (type instanceof GenericArrayType) {
+			collect(((GenericArrayType) type).getGenericComponentType(), predicate, names, visited);
+			return;
+		}
+		if (type instanceof WildcardType) {
+			collect(((WildcardType) type).getUpperBounds()[0], predicate, names, visited);
+			return;
+		}
+		if (!(type instanceof Class)) {
+			return;
+		}
+		Class<?> c = (Class<?>) type;
+		while (c.isArray()) {
+			c = c.getComponentType();
+		}
+		if (c.isPrimitive() || c.isEnum() || ByteBufUtil.getSerializer(c) != null
+				|| Collection.class.isAssignableFrom(c) || Map.class.isAssignableFrom(c) || !visited.add(c)) {
+			return;
+		}
+		FieldPlan plan = FieldPlan.get(c, predicate);
+		for (int i = 0; i < plan.size(); i++) {
+			names.add(plan.get(i).field().getName());
+		}
+		for (int i = 0; i < plan.size(); i++) {
+			collect(plan.get(i).field().getGenericType(), predicate, names, visited);
+		}
+	}
+
+	int id(Field field) {
+		Integer id = ids.get(field.getName());
+		if (id == null) {
+			throw new IllegalStateException("Field " + field + " is not reachable from the written type");
+		}
+		return id;
+	}
+
+	void write(ByteBuf buffer, SerializationContext context) {
+		context.writeLength(buffer, names.length);
+		for (String name : names) {
+			int length = ByteBufUtil.utf8Length(name);
+			context.writeLength(buffer, length);
+			ByteBufUtil.writeUtf8(buffer, name, length);
+		}
+	}
+
+	int size(SerializationContext context) {
+		int size = context.lengthSize(names.length);
+		for (String name : names) {
+			int length = ByteBufUtil.utf8Length(name);
+			size += context.lengthSize(length) + length;
+		}
+		return size;
+	}
+
+	static String[] read(ByteBuf buffer, SerializationContext context) {
+		int count = context.readLength(buffer);
+		ByteBufUtil.checkReadable(buffer, count);
+		String[] names = new String[count];
+		for (int i = 0; i < count; i++) {
+			names[i] = ByteBufUtil.readUtf8(buffer, context.readLength(buffer));
+		}
+		return names;
+	}
+
+}
@@ -0,0 +1,125 @@
+package meldexun.configutil;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Base class of the accessors created by {@link AccessorGenerator}. Generated subclasses hold their method handles in
+ * {@code static final} fields, so the JIT treats them as constants and inlines {@code invokeExact}. Only the methods
+ * matching the kind of the field are generated, the others fail like {@link Field} does for a mismatched type.
+ */
+public abstract class GeneratedAccessor extends FieldAccessor {
+
+	private static final Map<String, MethodHandle[]> HANDLES = new ConcurrentHashMap<>();
+
+	protected GeneratedAccessor(Field field) {
+		super(field);
+	}
+
+	static void putHandles(String className, MethodHandle[] handles) {
+		HANDLES.put(className, handles);
+	}
+
+	static void removeHandles(String className) {
+		HANDLES.remove(className);
+	}
+
+	/**
+	 * Called from the static initializer of a generated accessor to receive its getter, setter, object getter, object
+	 * setter and copier.
+	 */
+	protected static MethodHandle[] takeHandles(String className) {
+		MethodHandle[] handles = HANDLES.remove(className);
+		if (handles == null) {
+			throw new IllegalStateException("No handles for " + className);
+		}
+		return handles;
+	}
+
+	private IllegalArgumentException mismatch(String type) {
+		return new IllegalArgumentException("Field " + field + " is not of type " + type);
+	}
+
+	@Override
+	public boolean getBoolean(Object obj) {
+		throw mismatch("boolean");
+	}
+
+	@Override
+	public byte getByte(Object obj) {
+		throw mismatch("byte");
+	}
+
+	@Override
+	public short getShort(Object obj) {
+		throw mismatch("short");
+	}
+
+	@Override
+	public int getInt(Object obj) {
+		throw mismatch("int");
+	}
+
+	@Override
+	public long getLong(Object obj) {
+		throw mismatch("long");
+	}
+
+	@Override
+	public float getFloat(Object obj) {
+		throw mismatch("float");
+	}
+
+	@Override
+	public double getDouble(Object obj) {
+		throw mismatch("double");
+	}
+
+	@Override
+	public char getChar(Object obj) {
+		throw mismatch("char");
+	}
+
+	@Override
+	public void setBoolean(Object obj, boolean value) {
+		throw mismatch("boolean");
+	}
+
+	@Override
+	public void setByte(Object obj, byte value) {
+		throw mismatch("byte");
+	}
+
+	@Override
+	public void setShort(Object obj, short value) {
+		throw mismatch("short");
+	}
+
+	@Override
+	public void setInt(Object obj, int value) {
+		throw mismatch("int");
+	}
+
+	@Override
+	public void setLong(Object obj, long value) {
+		throw mismatch("long");
+	}
+
+	@Override
+	public void setFloat(Object obj, float value) {
+		throw mismatch("float");
+	}
+
+	@Override
+	public void setDouble(Object obj, double value) {
+		throw mismatch("double");
+	}
+
+	@Override
+	public void setChar(Object obj, char value) {
+		throw mismatch("char");
+	}
+
+}
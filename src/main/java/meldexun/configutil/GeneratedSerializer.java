@@ -0,0 +1,64 @@
+package meldexun.configutil;
+
+import java.lang.reflect.Field;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Base class of the serializers created by {@link SerializerGenerator}. Generated subclasses access fields directly
+ * and call back into the helpers of this class for reference values and fields that can't be accessed directly.
+ */
+public abstract class GeneratedSerializer<T> implements ByteBufUtil.Serializer<T> {
+
+	private final FieldPlan plan;
+	@Nullable
+	private final Predicate<Field> predicate;
+
+	protected GeneratedSerializer(FieldPlan plan, @Nullable Predicate<Field> predicate) {
+		this.plan = plan;
+		this.predicate = predicate;
+	}
+
+	@Override
+	public void write(ByteBuf buffer, T t) throws ReflectiveOperationException {
+		write(buffer, t, new SerializationContext(predicate, WireFormat.DEFAULT));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public T read(ByteBuf buffer) throws ReflectiveOperationException {
+		T dest = (T) plan.type().newInstance();
+		readInto(buffer, dest, new SerializationContext(predicate, WireFormat.DEFAULT));
+		return dest;
+	}
+
+	protected abstract void write(ByteBuf buffer, T src, SerializationContext context)
+			throws ReflectiveOperationException;
+
+	protected abstract void readInto(ByteBuf buffer, T dest, SerializationContext context)
+			throws ReflectiveOperationException;
+
+	protected final void writeReference(ByteBuf buffer, int index, @Nullable Object value,
+			SerializationContext context) throws ReflectiveOperationException {
+		ByteBufUtil.writeReference(plan.get(index).valueType(), value, buffer, context);
+	}
+
+	protected final Object readReference(ByteBuf buffer, int index, @Nullable Object dest,
+			SerializationContext context) throws ReflectiveOperationException {
+		return ByteBufUtil.readReference(plan.get(index).valueType(), dest, buffer, context);
+	}
+
+	protected final void writeReflective(ByteBuf buffer, int index, Object src, SerializationContext context)
+			throws ReflectiveOperationException {
+		ByteBufUtil.writeField(src, plan.get(index), buffer, context);
+	}
+
+	protected final void readReflective(ByteBuf buffer, int index, Object dest, SerializationContext context)
+			throws ReflectiveOperationException {
+		ByteBufUtil.readField(dest, plan.get(index), buffer, context);
+	}
+
+}
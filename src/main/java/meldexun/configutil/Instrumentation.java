@@ -0,0 +1,53 @@
+package meldexun.configutil;
+
+import java.lang.reflect.Field;
+
+/**
+ * Receives events from {@link ByteBufUtil} and {@link CopyUtil} once set through
+ * {@link ByteBufUtil#setInstrumentation(Instrumentation)} or {@link CopyUtil#setInstrumentation(Instrumentation)}.
+ * Byte counts and times of objects include their nested values. While instrumentation is set, serialization always
+ * uses the reflective engine so fields can be reported individually. With {@link #NONE} the hooks aren't called at
+ * all.
+ */
+public interface Instrumentation {
+
+	Instrumentation NONE = new Instrumentation() {
+
+	};
+
+	default void objectWritten(Class<?> type, int bytes, long nanos) {
+
+	}
+
+	default void fieldWritten(Field field, int bytes) {
+
+	}
+
+	default void arrayWritten(Class<?> type, int length, int bytes) {
+
+	}
+
+	/**
+	 * @param reused whether the value was read into an existing destination instead of a new instance
+	 */
+	default void objectRead(Class<?> type, int bytes, long nanos, boolean reused) {
+
+	}
+
+	default void fieldRead(Field field, int bytes) {
+
+	}
+
+	default void arrayRead(Class<?> type, int length, int bytes, boolean reused) {
+
+	}
+
+	default void objectCopied(Class<?> type, long nanos, boolean reused) {
+
+	}
+
+	default void arrayCopied(Class<?> type, int length, boolean reused) {
+
+	}
+
+}
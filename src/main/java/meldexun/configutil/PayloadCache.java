@@ -0,0 +1,80 @@
+package meldexun.configutil;
+
+import javax.annotation.Nullable;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+/**
+ * Encodes the {@link ConfigUtil.Sync} fields of a config once with
+ * {@link ConfigUtil#writeServerSettings(Object, ByteBufAllocator, WireFormat)} and hands out retained read-only
+ * duplicates of that encoding, so broadcasting the same config to many connections costs a single encode. The encoding
+ * is replaced after {@link #invalidate()} and, with change detection, whenever the synced fields of the config no longer
+ * equal the ones it was encoded from. Replaced encodings are released by the cache and freed once every duplicate has
+ * been released as well.
+ */
+public final class PayloadCache<T> {
+
+	private final ByteBufAllocator allocator;
+	private final WireFormat format;
+	private final boolean detectChanges;
+	@Nullable
+	private ByteBuf encoded;
+	@Nullable
+	private T snapshot;
+	private int version;
+
+	/**
+	 * @param detectChanges whether {@link #get(Object)} compares the config with a copy taken at encoding time. Without
+	 *                      it the encoding is only replaced by {@link #invalidate()}.
+	 */
+	public PayloadCache(ByteBufAllocator allocator, WireFormat format, boolean detectChanges) {
+		this.allocator = allocator;
+		this.format = format;
+		this.detectChanges = detectChanges;
+	}
+
+	/**
+	 * Returns a retained duplicate of the encoding of {@code src} which the caller has to release, for example by
+	 * writing it to a channel.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized ByteBuf get(T src) throws ReflectiveOperationException {
+		if (encoded != null && detectChanges
+				&& !EqualsUtil.valueEquals((Class<T>) src.getClass(), snapshot, src, ConfigUtil.SYNC_FIELDS)) {
+			invalidate();
+		}
+		if (encoded == null) {
+			ByteBuf buffer = ConfigUtil.writeServerSettings(src, allocator, format);
+			if (detectChanges) {
+				try {
+					snapshot = CopyUtil.update(src, snapshot, ConfigUtil.SYNC_FIELDS);
+				} catch (ReflectiveOperationException | RuntimeException | Error e) {
+					buffer.release();
+					throw e;
+				}
+			}
+			encoded = buffer.asReadOnly();
+			version++;
+		}
+		return encoded.retainedDuplicate();
+	}
+
+	/**
+	 * Number of encodings created so far.
+	 */
+	public synchronized int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Releases the current encoding. The next {@link #get(Object)} encodes again.
+	 */
+	public synchronized void invalidate() {
+		if (encoded != null) {
+			encoded.release();
+			encoded = null;
+		}
+	}
+
+}
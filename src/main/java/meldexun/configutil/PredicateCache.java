@@ -0,0 +1,66 @@
+package meldexun.configutil;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+/**
+ * Values derived from a class and a field predicate, cached per class. Only {@code null} and registered predicates
+ * (initially the ones in {@link ConfigUtil}) are cached, as caching by predicate instance would grow with every lambda
+ * created by a caller. Values for other predicates are computed on every call.
+ */
+final class PredicateCache<V> {
+
+	private static final Set<Predicate<Field>> CACHED_PREDICATES = ConcurrentHashMap.newKeySet();
+	static {
+		CACHED_PREDICATES.add(ConfigUtil.SYNC_FIELDS);
+		CACHED_PREDICATES.add(ConfigUtil.CLIENT_FIELDS);
+	}
+
+	private final BiFunction<Class<?>, Predicate<Field>, V> factory;
+	private final ClassValue<V> allFields;
+	private final Map<Predicate<Field>, ClassValue<V>> caches = new ConcurrentHashMap<>();
+
+	/**
+	 * {@code factory} receives {@code null} for all fields.
+	 */
+	PredicateCache(BiFunction<Class<?>, Predicate<Field>, V> factory) {
+		this.factory = factory;
+		this.allFields = createCache(null);
+	}
+
+	static void register(Predicate<Field> predicate) {
+		CACHED_PREDICATES.add(predicate);
+	}
+
+	static boolean isCached(@Nullable Predicate<Field> predicate) {
+		return predicate == null || CACHED_PREDICATES.contains(predicate);
+	}
+
+	V get(Class<?> type, @Nullable Predicate<Field> predicate) {
+		if (predicate == null) {
+			return allFields.get(type);
+		}
+		if (!CACHED_PREDICATES.contains(predicate)) {
+			return factory.apply(type, predicate);
+		}
+		return caches.computeIfAbsent(predicate, this::createCache).get(type);
+	}
+
+	private ClassValue<V> createCache(@Nullable Predicate<Field> predicate) {
+		return new ClassValue<V>() {
+
+			@Override
+			protected V computeValue(Class<?> type) {
+				return factory.apply(type, predicate);
+			}
+
+		};
+	}
+
+}
@@ -0,0 +1,350 @@
+package meldexun.configutil;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * State of a single {@link ByteBufUtil} write or read call. Primitive values are written through this class so the
+ * selected {@link WireFormat} only has to be checked in one place.
+ */
+final class SerializationContext {
+
+	@Nullable
+	final Predicate<Field> predicate;
+	final WireFormat format;
+	final boolean compact;
+	final boolean nullBitmap;
+	final boolean stringTable;
+	final boolean tagged;
+	final boolean identity;
+	@Nullable
+	private final ChunkedWriter chunkedWriter;
+	final Instrumentation instrumentation;
+	final boolean instrumented;
+	private int flushedBytes;
+	@Nullable
+	private Tables tables;
+
+	SerializationContext(@Nullable Predicate<Field> predicate, WireFormat format) {
+		this(predicate, format, null);
+	}
+
+	SerializationContext(@Nullable Predicate<Field> predicate, WireFormat format,
+			@Nullable ChunkedWriter chunkedWriter) {
+		this.predicate = predicate;
+		this.format = format;
+		this.compact = format.has(WireFormat.Feature.COMPACT);
+		this.nullBitmap = format.has(WireFormat.Feature.NULL_BITMAP);
+		this.stringTable = format.has(WireFormat.Feature.STRING_TABLE);
+		this.tagged = format.has(WireFormat.Feature.TAGGED);
+		if (tagged && stringTable) {
+			throw new IllegalArgumentException("Tagged payloads can't use a string table: " + format);
+		}
+		this.identity = format.has(WireFormat.Feature.IDENTITY);
+		if (tagged && identity) {
+			throw new IllegalArgumentException("Tagged payloads can't preserve identity: " + format);
+		}
+		this.chunkedWriter = chunkedWriter;
+		this.instrumentation = ByteBufUtil.getInstrumentation();
+		this.instrumented = instrumentation != Instrumentation.NONE;
+	}
+
+	/**
+	 * Generated serializers only support the default format and have neither chunk boundaries nor per-field
+	 * instrumentation.
+	 */
+	boolean allowsGenerated() {
+		return format.isDefault() && chunkedWriter == null && !instrumented;
+	}
+
+	/**
+	 * Number of bytes written so far, including bytes already handed out as chunks.
+	 */
+	int writePosition(ByteBuf buffer) {
+		return flushedBytes + buffer.writerIndex();
+	}
+
+	/**
+	 * Called after each field and array element. Hands completed chunks to the {@link ChunkedWriter}, if any.
+	 */
+	void boundary(ByteBuf buffer) {
+		if (chunkedWriter != null) {
+			int writerIndex = buffer.writerIndex();
+			chunkedWriter.flush(buffer, false);
+			flushedBytes += writerIndex - buffer.writerIndex();
+		}
+	}
+
+	private Tables tables() {
+		if (tables == null) {
+			tables = new Tables();
+		}
+		return tables;
+	}
+
+	/**
+	 * Writes the {@link FieldTable} of {@code type} if the format is tagged. Called once in front of a payload.
+	 */
+	void writeFieldTable(Class<?> type, ByteBuf buffer) {
+		if (tagged) {
+			tables().fieldTable = FieldTable.get(type, predicate);
+			tables.fieldTable.write(buffer, this);
+		}
+	}
+
+	int fieldTableSize(Class<?> type) {
+		if (!tagged) {
+			return 0;
+		}
+		tables().fieldTable = FieldTable.get(type, predicate);
+		return tables.fieldTable.size(this);
+	}
+
+	void readFieldTable(ByteBuf buffer) {
+		if (tagged) {
+			tables().fieldNames = FieldTable.read(buffer, this);
+		}
+	}
+
+	int fieldId(FieldPlan.Entry entry) {
+		if (tables == null || tables.fieldTable == null) {
+			throw new IllegalStateException("No field table written");
+		}
+		return tables.fieldTable.id(entry.field());
+	}
+
+	String fieldName(int id) {
+		String[] fieldNames = tables != null ? tables.fieldNames : null;
+		if (fieldNames == null) {
+			throw new IllegalStateException("No field table read");
+		}
+		if (id < 0 || id >= fieldNames.length) {
+			throw new IllegalStateException("Unknown field id: " + id);
+		}
+		return fieldNames[id];
+	}
+
+	/**
+	 * Returns the index of {@code value} plus one if it was written before, otherwise assigns it the next index and
+	 * returns 0. Sizing records the object like writing it would.
+	 */
+	int backReference(Object value) {
+		Map<Object, Integer> writtenObjects = tables().writtenObjects;
+		if (writtenObjects == null) {
+			writtenObjects = tables.writtenObjects = new IdentityHashMap<>();
+		}
+		Integer index = writtenObjects.putIfAbsent(value, writtenObjects.size());
+		return index != null ? index + 1 : 0;
+	}
+
+	Object readBackReference(int reference, Class<?> type) {
+		List<Object> readObjects = tables != null ? tables.readObjects : null;
+		if (readObjects == null || reference > readObjects.size()) {
+			throw new IllegalStateException("Unknown object reference: " + reference);
+		}
+		Object value = readObjects.get(reference - 1);
+		if (!type.isInstance(value)) {
+			throw new IllegalStateException("Object reference " + reference + " is a " + value.getClass().getName()
+					+ ", not a " + type.getName());
+		}
+		return value;
+	}
+
+	/**
+	 * Called before the fields or elements of an object, array, collection or map are read, so references to it from
+	 * within can be resolved.
+	 */
+	void registerRead(Object value) {
+		Tables tables = tables();
+		if (tables.readObjects == null) {
+			tables.readObjects = new ArrayList<>();
+			tables.readObjectSet = Collections.newSetFromMap(new IdentityHashMap<>());
+		}
+		tables.readObjects.add(value);
+		tables.readObjectSet.add(value);
+	}
+
+	/**
+	 * Whether {@code dest} already holds another value of this payload and must not be read into again.
+	 */
+	boolean wasRead(Object dest) {
+		return tables != null && tables.readObjectSet != null && tables.readObjectSet.contains(dest);
+	}
+
+	void writeShort(ByteBuf buffer, short s) {
+		if (compact) {
+			VarIntUtil.writeVarInt(buffer, VarIntUtil.encodeZigZag(s));
+		} else {
+			buffer.writeShort(s);
+		}
+	}
+
+	void writeInt(ByteBuf buffer, int i) {
+		if (compact) {
+			VarIntUtil.writeVarInt(buffer, VarIntUtil.encodeZigZag(i));
+		} else {
+			buffer.writeInt(i);
+		}
+	}
+
+	void writeLong(ByteBuf buffer, long l) {
+		if (compact) {
+			VarIntUtil.writeVarLong(buffer, VarIntUtil.encodeZigZag(l));
+		} else {
+			buffer.writeLong(l);
+		}
+	}
+
+	void writeChar(ByteBuf buffer, char c) {
+		if (compact) {
+			VarIntUtil.writeVarInt(buffer, c);
+		} else {
+			buffer.writeChar(c);
+		}
+	}
+
+	void writeLength(ByteBuf buffer, int length) {
+		if (compact) {
+			VarIntUtil.writeVarInt(buffer, length);
+		} else {
+			buffer.writeInt(length);
+		}
+	}
+
+	void writeString(ByteBuf buffer, String string) {
+		if (stringTable) {
+			Map<String, Integer> writtenStrings = tables().writtenStrings;
+			if (writtenStrings == null) {
+				writtenStrings = tables.writtenStrings = new HashMap<>();
+			}
+			Integer index = writtenStrings.putIfAbsent(string, writtenStrings.size());
+			if (index != null) {
+				VarIntUtil.writeVarInt(buffer, index + 1);
+				return;
+			}
+			VarIntUtil.writeVarInt(buffer, 0);
+		}
+		int length = ByteBufUtil.utf8Length(string);
+		writeLength(buffer, length);
+		ByteBufUtil.writeUtf8(buffer, string, length);
+	}
+
+	int shortSize(short s) {
+		return compact ? VarIntUtil.varIntSize(VarIntUtil.encodeZigZag(s)) : 2;
+	}
+
+	int intSize(int i) {
+		return compact ? VarIntUtil.varIntSize(VarIntUtil.encodeZigZag(i)) : 4;
+	}
+
+	int longSize(long l) {
+		return compact ? VarIntUtil.varLongSize(VarIntUtil.encodeZigZag(l)) : 8;
+	}
+
+	int charSize(char c) {
+		return compact ? VarIntUtil.varIntSize(c) : 2;
+	}
+
+	int lengthSize(int length) {
+		return compact ? VarIntUtil.varIntSize(length) : 4;
+	}
+
+	/**
+	 * Size of {@link #writeString(ByteBuf, String)}. Records the string in the string table like writing it would.
+	 */
+	int stringSize(String string) {
+		int size = 0;
+		if (stringTable) {
+			Map<String, Integer> writtenStrings = tables().writtenStrings;
+			if (writtenStrings == null) {
+				writtenStrings = tables.writtenStrings = new HashMap<>();
+			}
+			Integer index = writtenStrings.putIfAbsent(string, writtenStrings.size());
+			if (index != null) {
+				return VarIntUtil.varIntSize(index + 1);
+			}
+			size++;
+		}
+		int length = ByteBufUtil.utf8Length(string);
+		return size + lengthSize(length) + length;
+	}
+
+	short readShort(ByteBuf buffer) {
+		return compact ? (short) VarIntUtil.decodeZigZag(VarIntUtil.readVarInt(buffer)) : buffer.readShort();
+	}
+
+	int readInt(ByteBuf buffer) {
+		return compact ? VarIntUtil.decodeZigZag(VarIntUtil.readVarInt(buffer)) : buffer.readInt();
+	}
+
+	long readLong(ByteBuf buffer) {
+		return compact ? VarIntUtil.decodeZigZag(VarIntUtil.readVarLong(buffer)) : buffer.readLong();
+	}
+
+	char readChar(ByteBuf buffer) {
+		return compact ? (char) VarIntUtil.readVarInt(buffer) : buffer.readChar();
+	}
+
+	int readLength(ByteBuf buffer) {
+		int length = compact ? VarIntUtil.readVarInt(buffer) : buffer.readInt();
+		if (length < 0) {
+			throw new IllegalStateException("Negative length: " + length);
+		}
+		return length;
+	}
+
+	String readString(ByteBuf buffer) {
+		if (!stringTable) {
+			return ByteBufUtil.readUtf8(buffer, readLength(buffer));
+		}
+		List<String> readStrings = tables().readStrings;
+		if (readStrings == null) {
+			readStrings = tables.readStrings = new ArrayList<>();
+		}
+		int index = VarIntUtil.readVarInt(buffer);
+		if (index != 0) {
+			if (index > readStrings.size()) {
+				throw new IllegalStateException("Unknown string reference: " + index);
+			}
+			return readStrings.get(index - 1);
+		}
+		String string = ByteBufUtil.readUtf8(buffer, readLength(buffer));
+		readStrings.add(string);
+		return string;
+	}
+
+	/**
+	 * Tables that live for one payload. They are allocated on first use, so contexts of formats which need none of them
+	 * stay small.
+	 */
+	private static final class Tables {
+
+		@Nullable
+		private Map<String, Integer> writtenStrings;
+		@Nullable
+		private List<String> readStrings;
+		@Nullable
+		private FieldTable fieldTable;
+		@Nullable
+		private String[] fieldNames;
+		@Nullable
+		private Map<Object, Integer> writtenObjects;
+		@Nullable
+		private List<Object> readObjects;
+		@Nullable
+		private Set<Object> readObjectSet;
+
+	}
+
+}
@@ -0,0 +1,289 @@
+package meldexun.configutil;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Generates a {@link GeneratedSerializer} subclass per {@link FieldPlan} which reads and writes accessible primitive
+ * fields directly instead of going through {@link Field}. The generated code produces exactly the same bytes as the
+ * reflective path in {@link ByteBufUtil}.
+ */
+class SerializerGenerator implements Opcodes {
+
+	private static final String PACKAGE = "meldexun/configutil/generated/";
+	private static final String SUPER_NAME = Type.getInternalName(GeneratedSerializer.class);
+	private static final String BYTE_BUF = Type.getInternalName(ByteBuf.class);
+	private static final String BYTE_BUF_DESC = Type.getDescriptor(ByteBuf.class);
+	private static final String CONTEXT_DESC = Type.getDescriptor(SerializationContext.class);
+	private static final String METHOD_DESC = "(" + BYTE_BUF_DESC + "Ljava/lang/Object;" + CONTEXT_DESC + ")V";
+	private static final String HELPER_DESC = "(" + BYTE_BUF_DESC + "ILjava/lang/Object;" + CONTEXT_DESC + ")V";
+	private static final String READ_REFERENCE_DESC = "(" + BYTE_BUF_DESC + "ILjava/lang/Object;" + CONTEXT_DESC
+			+ ")Ljava/lang/Object;";
+
+	private static final Logger LOGGER = LogManager.getLogger();
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+	/**
+	 * Cached per class like {@link FieldPlan}, so generated classes and their class loaders don't keep the classes they
+	 * were generated for from being unloaded.
+	 */
+	private static final PredicateCache<Optional<GeneratedSerializer<?>>> CACHE = new PredicateCache<>(
+			(type, predicate) -> Optional.ofNullable(generate(FieldPlan.get(type, predicate), predicate)));
+
+	/**
+	 * Returns {@code null} for predicates whose serializers aren't cached, generating a class per call would fill
+	 * the metaspace.
+	 */
+	@SuppressWarnings("unchecked")
+	@Nullable
+	static <T> GeneratedSerializer<T> get(FieldPlan plan, @Nullable Predicate<Field> predicate) {
+		if (!PredicateCache.isCached(predicate)) {
+			return null;
+		}
+		return (GeneratedSerializer<T>) CACHE.get(plan.type(), predicate).orElse(null);
+	}
+
+	@Nullable
+	private static GeneratedSerializer<?> generate(FieldPlan plan, @Nullable Predicate<Field> predicate) {
+		Class<?> type = plan.type();
+		if (!Modifier.isPublic(type.getModifiers()) || type.getClassLoader() == null) {
+			return null;
+		}
+		String name = PACKAGE + type.getSimpleName() + "Serializer" + COUNTER.incrementAndGet();
+		byte[] bytes = generateClass(plan, name);
+		try {
+			Class<?> generated = new GeneratorClassLoader(type.getClassLoader()).define(name.replace('/', '.'), bytes);
+			return (GeneratedSerializer<?>) generated.getConstructor(FieldPlan.class, Predicate.class)
+					.newInstance(plan, predicate);
+		} catch (ReflectiveOperationException | LinkageError e) {
+			// cached as absent, so this is only logged once per class and predicate
+			LOGGER.warn("Failed to generate serializer for {}, falling back to reflection", type.getName(), e);
+			return null;
+		}
+	}
+
+	private static boolean isDirectlyAccessible(FieldPlan.Entry entry) {
+		Field field = entry.field();
+		int modifiers = field.getModifiers();
+		return Modifier.isPublic(modifiers) && !Modifier.isFinal(modifiers)
+				&& Modifier.isPublic(field.getDeclaringClass().getModifiers()) && isPublic(entry.type());
+	}
+
+	private static boolean isPublic(Class<?> type) {
+		while (type.isArray()) {
+			type = type.getComponentType();
+		}
+		return type.isPrimitive() || Modifier.isPublic(type.getModifiers());
+	}
+
+	private static byte[] generateClass(FieldPlan plan, String name) {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, name, null, SUPER_NAME, null);
+
+		String constructorDesc = "(" + Type.getDescriptor(FieldPlan.class) + Type.getDescriptor(Predicate.class) + ")V";
+		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", constructorDesc, null, null);
+		mv.visitCode();
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitVarInsn(ALOAD, 1);
+		mv.visitVarInsn(ALOAD, 2);
+		mv.visitMethodInsn(INVOKESPECIAL, SUPER_NAME, "<init>", constructorDesc, false);
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		generateWrite(cw, plan);
+		generateReadInto(cw, plan);
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private static void generateWrite(ClassWriter cw, FieldPlan plan) {
+		MethodVisitor mv = cw.visitMethod(ACC_PROTECTED, "write", METHOD_DESC, null,
+				new String[] { "java/lang/ReflectiveOperationException" });
+		mv.visitCode();
+		for (int i = 0; i < plan.size(); i++) {
+			FieldPlan.Entry entry = plan.get(i);
+			if (!isDirectlyAccessible(entry)) {
+				mv.visitVarInsn(ALOAD, 0);
+				mv.visitVarInsn(ALOAD, 1);
+				visitInt(mv, i);
+				mv.visitVarInsn(ALOAD, 2);
+				mv.visitVarInsn(ALOAD, 3);
+				mv.visitMethodInsn(INVOKEVIRTUAL, SUPER_NAME, "writeReflective", HELPER_DESC, false);
+				continue;
+			}
+			Field field = entry.field();
+			String owner = Type.getInternalName(field.getDeclaringClass());
+			if (!entry.kind().isPrimitive()) {
+				mv.visitVarInsn(ALOAD, 0);
+				mv.visitVarInsn(ALOAD, 1);
+				visitInt(mv, i);
+				mv.visitVarInsn(ALOAD, 2);
+				mv.visitTypeInsn(CHECKCAST, owner);
+				mv.visitFieldInsn(GETFIELD, owner, field.getName(), Type.getDescriptor(entry.type()));
+				mv.visitVarInsn(ALOAD, 3);
+				mv.visitMethodInsn(INVOKEVIRTUAL, SUPER_NAME, "writeReference", HELPER_DESC, false);
+				continue;
+			}
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitVarInsn(ALOAD, 2);
+			mv.visitTypeInsn(CHECKCAST, owner);
+			mv.visitFieldInsn(GETFIELD, owner, field.getName(), Type.getDescriptor(entry.type()));
+			mv.visitMethodInsn(INVOKEVIRTUAL, BYTE_BUF, writeMethod(entry.kind()),
+					"(" + writeParameter(entry.kind()) + ")" + BYTE_BUF_DESC, false);
+			mv.visitInsn(POP);
+		}
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private static void generateReadInto(ClassWriter cw, FieldPlan plan) {
+		MethodVisitor mv = cw.visitMethod(ACC_PROTECTED, "readInto", METHOD_DESC, null,
+				new String[] { "java/lang/ReflectiveOperationException" });
+		mv.visitCode();
+		for (int i = 0; i < plan.size(); i++) {
+			FieldPlan.Entry entry = plan.get(i);
+			if (!isDirectlyAccessible(entry)) {
+				mv.visitVarInsn(ALOAD, 0);
+				mv.visitVarInsn(ALOAD, 1);
+				visitInt(mv, i);
+				mv.visitVarInsn(ALOAD, 2);
+				mv.visitVarInsn(ALOAD, 3);
+				mv.visitMethodInsn(INVOKEVIRTUAL, SUPER_NAME, "readReflective", HELPER_DESC, false);
+				continue;
+			}
+			Field field = entry.field();
+			String owner = Type.getInternalName(field.getDeclaringClass());
+			String desc = Type.getDescriptor(entry.type());
+			if (!entry.kind().isPrimitive()) {
+				mv.visitVarInsn(ALOAD, 2);
+				mv.visitTypeInsn(CHECKCAST, owner);
+				mv.visitVarInsn(ALOAD, 0);
+				mv.visitVarInsn(ALOAD, 1);
+				visitInt(mv, i);
+				mv.visitVarInsn(ALOAD, 2);
+				mv.visitTypeInsn(CHECKCAST, owner);
+				mv.visitFieldInsn(GETFIELD, owner, field.getName(), desc);
+				mv.visitVarInsn(ALOAD, 3);
+				mv.visitMethodInsn(INVOKEVIRTUAL, SUPER_NAME, "readReference", READ_REFERENCE_DESC, false);
+				mv.visitTypeInsn(CHECKCAST, Type.getInternalName(entry.type()));
+				mv.visitFieldInsn(PUTFIELD, owner, field.getName(), desc);
+				continue;
+			}
+			mv.visitVarInsn(ALOAD, 2);
+			mv.visitTypeInsn(CHECKCAST, owner);
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitMethodInsn(INVOKEVIRTUAL, BYTE_BUF, readMethod(entry.kind()), "()" + desc, false);
+			mv.visitFieldInsn(PUTFIELD, owner, field.getName(), desc);
+		}
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private static void visitInt(MethodVisitor mv, int i) {
+		if (i <= 5) {
+			mv.visitInsn(ICONST_0 + i);
+		} else if (i <= Byte.MAX_VALUE) {
+			mv.visitIntInsn(BIPUSH, i);
+		} else if (i <= Short.MAX_VALUE) {
+			mv.visitIntInsn(SIPUSH, i);
+		} else {
+			mv.visitLdcInsn(i);
+		}
+	}
+
+	private static String writeMethod(FieldPlan.Kind kind) {
+		switch (kind) {
+		case BOOLEAN:
+			return "writeBoolean";
+		case BYTE:
+			return "writeByte";
+		case SHORT:
+			return "writeShort";
+		case INT:
+			return "writeInt";
+		case LONG:
+			return "writeLong";
+		case FLOAT:
+			return "writeFloat";
+		case DOUBLE:
+			return "writeDouble";
+		case CHAR:
+			return "writeChar";
+		default:
+			throw new IllegalArgumentException(kind.toString());
+		}
+	}
+
+	private static String writeParameter(FieldPlan.Kind kind) {
+		switch (kind) {
+		case BOOLEAN:
+			return "Z";
+		case LONG:
+			return "J";
+		case FLOAT:
+			return "F";
+		case DOUBLE:
+			return "D";
+		default:
+			return "I";
+		}
+	}
+
+	private static String readMethod(FieldPlan.Kind kind) {
+		switch (kind) {
+		case BOOLEAN:
+			return "readBoolean";
+		case BYTE:
+			return "readByte";
+		case SHORT:
+			return "readShort";
+		case INT:
+			return "readInt";
+		case LONG:
+			return "readLong";
+		case FLOAT:
+			return "readFloat";
+		case DOUBLE:
+			return "readDouble";
+		case CHAR:
+			return "readChar";
+		default:
+			throw new IllegalArgumentException(kind.toString());
+		}
+	}
+
+	static class GeneratorClassLoader extends ClassLoader {
+
+		public GeneratorClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			return Class.forName(name, false, SerializerGenerator.class.getClassLoader());
+		}
+
+		public Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+
+	}
+
+}
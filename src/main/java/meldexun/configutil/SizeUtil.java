@@ -0,0 +1,323 @@
+package meldexun.configutil;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Computes the exact number of bytes {@link ByteBufUtil} writes for a value by walking the same {@link FieldPlan}
+ * without writing anything. Only values handled by custom serializers are written to a per-thread scratch buffer to
+ * measure them.
+ */
+public class SizeUtil {
+
+	private static final int MAX_SCRATCH_CAPACITY = 65536;
+	private static final ThreadLocal<ByteBuf> SCRATCH = ThreadLocal.withInitial(Unpooled::buffer);
+
+	public static <T> int sizeOf(@Nullable T value, @Nullable Predicate<Field> predicate)
+			throws ReflectiveOperationException {
+		return sizeOf(value, predicate, WireFormat.DEFAULT);
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <T> int sizeOf(@Nullable T value, @Nullable Predicate<Field> predicate, WireFormat format)
+			throws ReflectiveOperationException {
+		return sizeOf((Class<T>) (value != null ? value.getClass() : Object.class), value, predicate, format);
+	}
+
+	public static <T> int sizeOf(Class<T> type, @Nullable T value, @Nullable Predicate<Field> predicate)
+			throws ReflectiveOperationException {
+		return sizeOf(type, value, predicate, WireFormat.DEFAULT);
+	}
+
+	/**
+	 * Returns the size of {@link ByteBufUtil#write(Class, Object, ByteBuf, Predicate, WireFormat)} with the same
+	 * arguments.
+	 */
+	public static <T> int sizeOf(Class<T> type, @Nullable T value, @Nullable Predicate<Field> predicate,
+			WireFormat format) throws ReflectiveOperationException {
+		SerializationContext context = new SerializationContext(predicate, format);
+		long size = 1 + context.fieldTableSize(type);
+		if (value != null) {
+			size += valueSize(type, value, context);
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Encoded size exceeds 2 GiB: " + size);
+		}
+		return (int) size;
+	}
+
+	private static long referenceSize(ValueType type, @Nullable Object value, SerializationContext context)
+			throws ReflectiveOperationException {
+		return value != null ? 1 + valueSize(type, value, context) : 1;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <R> long valueSize(ValueType type, Object value, SerializationContext context)
+			throws ReflectiveOperationException {
+		if (type.enumConstants != null) {
+			return VarIntUtil.varIntSize(((Enum<?>) value).ordinal());
+		}
+		if (type.category == ValueType.Category.VALUE || ByteBufUtil.getSerializer(type.type) != null) {
+			return valueSize((Class<R>) type.type, (R) value, context);
+		}
+		if (context.identity) {
+			int reference = context.backReference(value);
+			if (reference != 0) {
+				return VarIntUtil.varIntSize(reference);
+			}
+			return 1 + containerSize(type, value, context);
+		}
+		return containerSize(type, value, context);
+	}
+
+	private static long containerSize(ValueType type, Object value, SerializationContext context)
+			throws ReflectiveOperationException {
+		switch (type.category) {
+		case ENUM_SET:
+			return (ValueType.enumConstants(type.element().type).length + 7) >> 3;
+		case ENUM_MAP: {
+			long size = (ValueType.enumConstants(type.element().type).length + 7) >> 3;
+			ValueType valueType = type.value();
+			for (Object element : ((Map<?, ?>) value).values()) {
+				size += referenceSize(valueType, element, context);
+			}
+			return size;
+		}
+		case COLLECTION: {
+			Collection<?> collection = (Collection<?>) value;
+			ValueType elementType = type.element();
+			long size = context.lengthSize(collection.size());
+			for (Object element : collection) {
+				size += referenceSize(elementType, element, context);
+			}
+			return size;
+		}
+		default: {
+			Map<?, ?> map = (Map<?, ?>) value;
+			ValueType keyType = type.element();
+			ValueType valueType = type.value();
+			long size = context.lengthSize(map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				size += referenceSize(keyType, entry.getKey(), context);
+				size += referenceSize(valueType, entry.getValue(), context);
+			}
+			return size;
+		}
+		}
+	}
+
+	private static <T> long valueSize(Class<T> type, T value, SerializationContext context)
+			throws ReflectiveOperationException {
+		ByteBufUtil.Serializer<T> serializer = ByteBufUtil.getSerializer(type);
+		if (serializer != null) {
+			if (!ByteBufUtil.isBuiltIn(serializer)) {
+				return measure(serializer, value);
+			}
+			if (!context.format.isDefault()) {
+				if (type == String.class) {
+					return context.stringSize((String) value);
+				}
+				return boxedSize(FieldPlan.Kind.ofBoxed(type), value, context);
+			}
+			if (type == String.class) {
+				return 4 + ByteBufUtil.utf8Length((String) value);
+			}
+			return FieldPlan.Kind.ofBoxed(type).size();
+		}
+
+		if (type.isArray()) {
+			if (context.identity) {
+				int reference = context.backReference(value);
+				if (reference != 0) {
+					return VarIntUtil.varIntSize(reference);
+				}
+				return 1 + arraySize(type, value, context);
+			}
+			return arraySize(type, value, context);
+		}
+
+		if (Enum.class.isAssignableFrom(type)) {
+			return VarIntUtil.varIntSize(((Enum<?>) value).ordinal());
+		}
+
+		if (Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)) {
+			return valueSize(ValueType.of(type), value, context);
+		}
+
+		if (context.identity) {
+			int reference = context.backReference(value);
+			if (reference != 0) {
+				return VarIntUtil.varIntSize(reference);
+			}
+			return 1 + objectSize(type, value, context);
+		}
+		return objectSize(type, value, context);
+	}
+
+	private static <T> long measure(ByteBufUtil.Serializer<T> serializer, T value)
+			throws ReflectiveOperationException {
+		ByteBuf scratch = SCRATCH.get();
+		try {
+			serializer.write(scratch.clear(), value);
+			return scratch.writerIndex();
+		} finally {
+			if (scratch.capacity() > MAX_SCRATCH_CAPACITY) {
+				SCRATCH.remove();
+			}
+		}
+	}
+
+	private static long boxedSize(FieldPlan.Kind kind, Object value, SerializationContext context) {
+		switch (kind) {
+		case SHORT:
+			return context.shortSize((Short) value);
+		case INT:
+			return context.intSize((Integer) value);
+		case LONG:
+			return context.longSize((Long) value);
+		case CHAR:
+			return context.charSize((Character) value);
+		default:
+			return kind.size();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T, R> long arraySize(Class<T> type, T value, SerializationContext context)
+			throws ReflectiveOperationException {
+		Class<R> componentType = (Class<R>) type.getComponentType();
+		FieldPlan.Kind componentKind = FieldPlan.Kind.of(componentType);
+		int length = Array.getLength(value);
+		long size = context.lengthSize(length);
+		if (componentKind.isPrimitive()) {
+			return size + primitiveArraySize(componentKind, value, length, context);
+		}
+		R[] array = (R[]) value;
+		if (context.nullBitmap) {
+			size += (length + 7) >> 3;
+			for (R element : array) {
+				if (element != null) {
+					size += valueSize(componentType, element, context);
+				}
+			}
+			return size;
+		}
+		for (R element : array) {
+			size += element != null ? 1 + valueSize(componentType, element, context) : 1;
+		}
+		return size;
+	}
+
+	private static long primitiveArraySize(FieldPlan.Kind componentKind, Object value, int length,
+			SerializationContext context) {
+		if (!context.compact) {
+			return (long) length * componentKind.size();
+		}
+		long size = 0;
+		switch (componentKind) {
+		case BOOLEAN:
+			return (length + 7) >> 3;
+		case SHORT:
+			for (short s : (short[]) value) {
+				size += context.shortSize(s);
+			}
+			return size;
+		case INT:
+			for (int i : (int[]) value) {
+				size += context.intSize(i);
+			}
+			return size;
+		case LONG:
+			for (long l : (long[]) value) {
+				size += context.longSize(l);
+			}
+			return size;
+		case CHAR:
+			for (char c : (char[]) value) {
+				size += context.charSize(c);
+			}
+			return size;
+		default:
+			return (long) length * componentKind.size();
+		}
+	}
+
+	private static <T> long objectSize(Class<T> type, T value, SerializationContext context)
+			throws ReflectiveOperationException {
+		FieldPlan plan = FieldPlan.get(type, context.predicate);
+		if (context.tagged) {
+			return taggedObjectSize(plan, value, context);
+		}
+		long size = 0;
+		if (context.compact && plan.booleanCount() > 0) {
+			size += (plan.booleanCount() + 7) >> 3;
+		}
+		if (context.nullBitmap && plan.nullableCount() > 0) {
+			size += (plan.nullableCount() + 7) >> 3;
+		}
+		for (int i = 0; i < plan.size(); i++) {
+			FieldPlan.Entry entry = plan.get(i);
+			if (entry.kind() == FieldPlan.Kind.BOOLEAN) {
+				size += context.compact ? 0 : 1;
+			} else if (entry.kind().isPrimitive()) {
+				size += primitiveFieldSize(entry, value, context);
+			} else {
+				Object fieldValue = entry.field().get(value);
+				if (!context.nullBitmap) {
+					size += referenceSize(entry.valueType(), fieldValue, context);
+				} else if (fieldValue != null) {
+					size += valueSize(entry.valueType(), fieldValue, context);
+				} else if (entry.isNonNull()) {
+					throw new NullPointerException("Field " + entry.field() + " is declared non-null");
+				}
+			}
+		}
+		return size;
+	}
+
+	private static long taggedObjectSize(FieldPlan plan, Object value, SerializationContext context)
+			throws ReflectiveOperationException {
+		long size = VarIntUtil.varIntSize(plan.size());
+		for (int i = 0; i < plan.size(); i++) {
+			FieldPlan.Entry entry = plan.get(i);
+			size += VarIntUtil.varIntSize(context.fieldId(entry));
+			if (entry.kind().isPrimitive()) {
+				int fieldSize = primitiveFieldSize(entry, value, context);
+				size += VarIntUtil.varIntSize(fieldSize) + fieldSize;
+			} else {
+				long fieldSize = referenceSize(entry.valueType(), entry.field().get(value), context);
+				if (fieldSize > Integer.MAX_VALUE) {
+					throw new IllegalArgumentException(
+							"Encoded size of " + entry.field() + " exceeds 2 GiB: " + fieldSize);
+				}
+				size += VarIntUtil.PADDED_VAR_INT_SIZE + fieldSize;
+			}
+		}
+		return size;
+	}
+
+	static int primitiveFieldSize(FieldPlan.Entry entry, Object value, SerializationContext context)
+			throws ReflectiveOperationException {
+		switch (entry.kind()) {
+		case SHORT:
+			return context.shortSize(entry.field().getShort(value));
+		case INT:
+			return context.intSize(entry.field().getInt(value));
+		case LONG:
+			return context.longSize(entry.field().getLong(value));
+		case CHAR:
+			return context.charSize(entry.field().getChar(value));
+		default:
+			return entry.kind().size();
+		}
+	}
+
+}
@@ -0,0 +1,28 @@
+package meldexun.configutil;
+
+import javax.annotation.Nullable;
+
+/**
+ * Holds a copy of the {@link ConfigUtil.Sync} fields of a config as they were last sent to clients, so that
+ * {@link ConfigUtil#writeServerSettingsDelta} only has to send what changed since then. Call {@link #reset()} when a
+ * client may have missed a delta to make the next write a full one.
+ */
+public final class SyncSnapshot<T> {
+
+	@Nullable
+	private T snapshot;
+
+	@Nullable
+	synchronized T get() {
+		return snapshot;
+	}
+
+	synchronized void update(T src) throws ReflectiveOperationException {
+		snapshot = CopyUtil.update(src, snapshot, ConfigUtil.SYNC_FIELDS);
+	}
+
+	public synchronized void reset() {
+		snapshot = null;
+	}
+
+}
@@ -0,0 +1,241 @@
+package meldexun.configutil;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.annotation.Nullable;
+
+/**
+ * Declared type of a value with the type arguments of collections and maps resolved from the generic signature. It is
+ * resolved once per {@link FieldPlan.Entry}, so containers don't have to dispatch on the class of every element.
+ */
+final class ValueType {
+
+	private static final ClassValue<Object[]> ENUM_CONSTANTS = new ClassValue<Object[]>() {
+		@Override
+		protected Object[] computeValue(Class<?> type) {
+			return enumClass(type).getEnumConstants();
+		}
+	};
+	private static final ClassValue<Boolean> INSTANTIABLE = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			if (!Modifier.isPublic(type.getModifiers()) || Modifier.isAbstract(type.getModifiers())) {
+				return false;
+			}
+			try {
+				type.getConstructor();
+				return true;
+			} catch (NoSuchMethodException e) {
+				return false;
+			}
+		}
+	};
+
+	enum Category {
+
+		VALUE, ENUM_SET, ENUM_MAP, COLLECTION, MAP;
+
+	}
+
+	final Class<?> type;
+	final Category category;
+	/** Constants of enum values, {@code null} for other types. */
+	@Nullable
+	final Object[] enumConstants;
+	/** Elements of collections and keys of maps. */
+	@Nullable
+	private final ValueType element;
+	@Nullable
+	private final ValueType value;
+
+	private ValueType(Class<?> type, Category category, @Nullable ValueType element, @Nullable ValueType value) {
+		this.type = type;
+		this.category = category;
+		this.enumConstants = category == Category.VALUE && Enum.class.isAssignableFrom(type) ? enumConstants(type)
+				: null;
+		this.element = element;
+		this.value = value;
+	}
+
+	static ValueType of(Type type) {
+		Class<?> raw = raw(type);
+		Type[] arguments = type instanceof ParameterizedType ? ((ParameterizedType) type).getActualTypeArguments()
+				: null;
+		if (EnumSet.class.isAssignableFrom(raw)) {
+			return container(raw, Category.ENUM_SET, arguments);
+		}
+		if (EnumMap.class.isAssignableFrom(raw)) {
+			return container(raw, Category.ENUM_MAP, arguments);
+		}
+		if (Map.class.isAssignableFrom(raw)) {
+			return container(raw, Category.MAP, arguments);
+		}
+		if (Collection.class.isAssignableFrom(raw)) {
+			return container(raw, Category.COLLECTION, arguments);
+		}
+		return new ValueType(raw, Category.VALUE, null, null);
+	}
+
+	private static ValueType container(Class<?> raw, Category category, @Nullable Type[] arguments) {
+		int count = category == Category.MAP || category == Category.ENUM_MAP ? 2 : 1;
+		if (arguments == null || arguments.length != count) {
+			return new ValueType(raw, category, null, null);
+		}
+		return new ValueType(raw, category, argument(arguments[0]), count == 2 ? argument(arguments[1]) : null);
+	}
+
+	@Nullable
+	private static ValueType argument(Type type) {
+		ValueType valueType = of(type);
+		return valueType.type != Object.class ? valueType : null;
+	}
+
+	private static Class<?> raw(Type type) {
+		if (type instanceof Class) {
+			return (Class<?>) type;
+		}
+		if (type instanceof ParameterizedType) {
+			return (Class<?>) ((ParameterizedType) type).getRawType();
+		}
+		if (type instanceof GenericArrayType) {
+			return Array.newInstance(raw(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+		}
+		if (type instanceof WildcardType) {
+			return raw(((WildcardType) type).getUpperBounds()[0]);
+		}
+		if (type instanceof TypeVariable) {
+			return raw(((TypeVariable<?>) type).getBounds()[0]);
+		}
+		throw new IllegalArgumentException("Unsupported type " + type);
+	}
+
+	boolean isContainer() {
+		return category != Category.VALUE;
+	}
+
+	ValueType element() {
+		if (element == null) {
+			throw new IllegalArgumentException("Can't resolve element type of " + type.getName()
+					+ ", declare it with a type argument other than Object");
+		}
+		return element;
+	}
+
+	ValueType value() {
+		if (value == null) {
+			throw new IllegalArgumentException("Can't resolve value type of " + type.getName()
+					+ ", declare it with a type argument other than Object");
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the constants of the enum {@code type} belongs to, including for classes of constants with a body. The
+	 * array is shared and must not be modified.
+	 */
+	static Object[] enumConstants(Class<?> type) {
+		return ENUM_CONSTANTS.get(type);
+	}
+
+	@SuppressWarnings("unchecked")
+	static <E extends Enum<E>> Class<E> enumClass(Class<?> type) {
+		Class<?> enumClass = type.isEnum() ? type : type.getSuperclass();
+		if (enumClass == null || !enumClass.isEnum()) {
+			throw new IllegalArgumentException(type.getName() + " is not an enum");
+		}
+		return (Class<E>) enumClass;
+	}
+
+	/**
+	 * Returns {@code dest} if it can be cleared and refilled, otherwise a new empty container assignable to this type.
+	 */
+	Object reuseContainer(@Nullable Object dest) throws ReflectiveOperationException {
+		return dest != null && isRefillable(dest) ? dest : newContainer(type, dest);
+	}
+
+	/**
+	 * Only enum sets, enum maps and instances of public classes with a public no-arg constructor are refilled, as
+	 * wrappers like {@link java.util.Collections#unmodifiableList(java.util.List)} can't be modified.
+	 */
+	static boolean isRefillable(Object container) {
+		return container instanceof EnumSet || container instanceof EnumMap || INSTANTIABLE.get(container.getClass());
+	}
+
+	/**
+	 * Whether both containers are lists, sets or maps of the same kind, so one can be refilled with the contents of the
+	 * other. Sorted containers and enum sets and maps only match their own class.
+	 */
+	static boolean isCompatible(Object a, Object b) {
+		if (a.getClass() == b.getClass()) {
+			return true;
+		}
+		if (a instanceof SortedSet || a instanceof SortedMap || a instanceof EnumSet || a instanceof EnumMap
+				|| b instanceof SortedSet || b instanceof SortedMap || b instanceof EnumSet || b instanceof EnumMap) {
+			return false;
+		}
+		return a instanceof List == b instanceof List && a instanceof Set == b instanceof Set
+				&& a instanceof Map == b instanceof Map && a instanceof Queue == b instanceof Queue;
+	}
+
+	/**
+	 * Creates an empty, mutable container assignable to {@code type}, preferring the class of {@code template} and
+	 * keeping the comparator of a sorted one. Interfaces and classes without a public no-arg constructor are mapped to a
+	 * default implementation which keeps insertion order.
+	 */
+	static Object newContainer(Class<?> type, @Nullable Object template) throws ReflectiveOperationException {
+		Object container;
+		if (template instanceof SortedSet) {
+			container = new TreeSet<>(((SortedSet<?>) template).comparator());
+		} else if (template instanceof SortedMap) {
+			container = new TreeMap<>(((SortedMap<?, ?>) template).comparator());
+		} else if (template != null && INSTANTIABLE.get(template.getClass())) {
+			container = template.getClass().newInstance();
+		} else if (INSTANTIABLE.get(type)) {
+			container = type.newInstance();
+		} else if (Map.class.isAssignableFrom(type)) {
+			container = SortedMap.class.isAssignableFrom(type) ? new TreeMap<>() : new LinkedHashMap<>();
+		} else if (Set.class.isAssignableFrom(type)) {
+			container = SortedSet.class.isAssignableFrom(type) ? new TreeSet<>() : new LinkedHashSet<>();
+		} else if (Queue.class.isAssignableFrom(type)) {
+			container = new ArrayDeque<>();
+		} else {
+			container = new ArrayList<>();
+		}
+		if (!type.isInstance(container)) {
+			throw new IllegalArgumentException("Can't create an instance of " + type.getName());
+		}
+		return container;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	EnumSet<?> newEnumSet() {
+		return EnumSet.noneOf((Class) enumClass(element().type));
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	EnumMap<?, ?> newEnumMap() {
+		return new EnumMap(enumClass(element().type));
+	}
+
+}
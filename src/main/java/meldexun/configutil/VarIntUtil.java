@@ -0,0 +1,101 @@
+package meldexun.configutil;
+
+import io.netty.buffer.ByteBuf;
+
+public class VarIntUtil {
+
+	/**
+	 * Size of a varint written with {@link #setPaddedVarInt(ByteBuf, int, int)}.
+	 */
+	public static final int PADDED_VAR_INT_SIZE = 5;
+
+	public static int encodeZigZag(int i) {
+		return (i << 1) ^ (i >> 31);
+	}
+
+	public static int decodeZigZag(int i) {
+		return (i >>> 1) ^ -(i & 1);
+	}
+
+	public static long encodeZigZag(long l) {
+		return (l << 1) ^ (l >> 63);
+	}
+
+	public static long decodeZigZag(long l) {
+		return (l >>> 1) ^ -(l & 1);
+	}
+
+	public static void writeVarInt(ByteBuf buffer, int i) {
+		while ((i & ~0x7F) != 0) {
+			buffer.writeByte((i & 0x7F) | 0x80);
+			i >>>= 7;
+		}
+		buffer.writeByte(i);
+	}
+
+	/**
+	 * Sets {@code i} as a varint padded with continuation bytes to {@link #PADDED_VAR_INT_SIZE} bytes, so space for it
+	 * can be reserved before it is known. It is read by {@link #readVarInt(ByteBuf)} like any other varint.
+	 */
+	public static void setPaddedVarInt(ByteBuf buffer, int index, int i) {
+		for (int j = 0; j < PADDED_VAR_INT_SIZE - 1; j++) {
+			buffer.setByte(index + j, (i & 0x7F) | 0x80);
+			i >>>= 7;
+		}
+		buffer.setByte(index + PADDED_VAR_INT_SIZE - 1, i);
+	}
+
+	public static int readVarInt(ByteBuf buffer) {
+		int i = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = buffer.readByte();
+			i |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("VarInt too long");
+	}
+
+	public static void writeVarLong(ByteBuf buffer, long l) {
+		while ((l & ~0x7FL) != 0) {
+			buffer.writeByte((int) (l & 0x7F) | 0x80);
+			l >>>= 7;
+		}
+		buffer.writeByte((int) l);
+	}
+
+	public static long readVarLong(ByteBuf buffer) {
+		long l = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			byte b = buffer.readByte();
+			l |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return l;
+			}
+		}
+		throw new IllegalStateException("VarLong too long");
+	}
+
+	/**
+	 * Returns the number of complete varints or varlongs, but at most {@code max}, readable from {@code buffer}.
+	 */
+	public static int countVarInts(ByteBuf buffer, int max) {
+		int count = 0;
+		for (int i = buffer.readerIndex(); i < buffer.writerIndex() && count < max; i++) {
+			if ((buffer.getByte(i) & 0x80) == 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public static int varIntSize(int i) {
+		return (31 - Integer.numberOfLeadingZeros(i | 1)) / 7 + 1;
+	}
+
+	public static int varLongSize(long l) {
+		return (63 - Long.numberOfLeadingZeros(l | 1)) / 7 + 1;
+	}
+
+}
@@ -0,0 +1,145 @@
+package meldexun.configutil;
+
+import java.util.Arrays;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Selects the encoding used by {@link ByteBufUtil}. {@link #DEFAULT} is the original positional format. When a format
+ * is sent through {@link ConfigUtil#writeServerSettings(Object, ByteBuf, WireFormat)} it is announced with a header
+ * byte which has the highest bit set, so it can't be confused with the leading presence flag of a headerless payload.
+ */
+public final class WireFormat {
+
+	private static final int HEADER_MARKER = 0x80;
+
+	public static final WireFormat DEFAULT = new WireFormat(0);
+	public static final WireFormat COMPACT = DEFAULT.with(Feature.COMPACT);
+
+	private final int features;
+
+	private WireFormat(int features) {
+		this.features = features;
+	}
+
+	public static WireFormat of(Feature... features) {
+		WireFormat format = DEFAULT;
+		for (Feature feature : features) {
+			format = format.with(feature);
+		}
+		return format;
+	}
+
+	public WireFormat with(Feature feature) {
+		return features == (features | feature.mask) ? this : new WireFormat(features | feature.mask);
+	}
+
+	public WireFormat without(Feature feature) {
+		return (features & feature.mask) == 0 ? this : new WireFormat(features & ~feature.mask);
+	}
+
+	public boolean has(Feature feature) {
+		return (features & feature.mask) != 0;
+	}
+
+	public boolean isDefault() {
+		return features == 0;
+	}
+
+	public void writeHeader(ByteBuf buffer) {
+		buffer.writeByte(HEADER_MARKER | features);
+	}
+
+	public static boolean hasHeader(ByteBuf buffer) {
+		return buffer.isReadable() && (buffer.getUnsignedByte(buffer.readerIndex()) & HEADER_MARKER) != 0;
+	}
+
+	public static WireFormat readHeader(ByteBuf buffer) {
+		if (!hasHeader(buffer)) {
+			return DEFAULT;
+		}
+		int features = buffer.readUnsignedByte() & ~HEADER_MARKER;
+		int unknown = features & ~Feature.ALL;
+		if (unknown != 0) {
+			throw new IllegalArgumentException("Unknown wire format features: 0x" + Integer.toHexString(unknown));
+		}
+		return features == 0 ? DEFAULT : new WireFormat(features);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof WireFormat && ((WireFormat) obj).features == features;
+	}
+
+	@Override
+	public int hashCode() {
+		return features;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("WireFormat[");
+		for (Feature feature : Feature.values()) {
+			if (has(feature)) {
+				if (sb.charAt(sb.length() - 1) != '[') {
+					sb.append(',');
+				}
+				sb.append(feature);
+			}
+		}
+		return sb.append(']').toString();
+	}
+
+	public enum Feature {
+
+		/**
+		 * Zigzag varints for shorts, ints and longs, varints for chars and lengths and bit-packed booleans.
+		 */
+		COMPACT(0x01),
+		/**
+		 * The null flags of an object's reference fields and of a reference array's elements are packed into one
+		 * bitmap in front of the values. Fields marked with {@link ByteBufUtil.NonNull} carry no flag at all.
+		 */
+		NULL_BITMAP(0x02),
+		/**
+		 * Each distinct string is written once per payload. Later occurrences refer to it by a varint index and are
+		 * read back as the same instance.
+		 */
+		STRING_TABLE(0x04),
+		/**
+		 * Payloads of at least {@link CompressionUtil#getThreshold()} bytes are deflated by {@link ConfigUtil}. The
+		 * header only carries this bit when the payload actually was compressed.
+		 */
+		COMPRESSION(0x08),
+		/**
+		 * The payload is a {@link DeltaUtil} delta against the previously sent settings. Set by
+		 * {@link ConfigUtil#writeServerSettingsDelta(Object, SyncSnapshot, ByteBuf, WireFormat)}.
+		 */
+		DELTA(0x10),
+		/**
+		 * The payload starts with a table of the field names reachable from the written class. Each field of an object
+		 * is written with its index in that table and the length of its value, so readers skip fields they don't know
+		 * or don't select instead of depending on the writer's field layout. Can't be combined with
+		 * {@link #STRING_TABLE}, as a skipped field could introduce a string referred to later.
+		 */
+		TAGGED(0x20),
+		/**
+		 * Each object, array, collection and map is written once per payload and read back as a single instance. Later
+		 * references to it are written as a varint index, so shared objects and cycles are reproduced on read. Can't be
+		 * combined with {@link #TAGGED}, as a skipped field could introduce an object referred to later.
+		 */
+		IDENTITY(0x40);
+
+		private static final int ALL = Arrays.stream(values())
+				.mapToInt(feature -> feature.mask)
+				.reduce(0, (a, b) -> a | b);
+
+		private final int mask;
+
+		private Feature(int mask) {
+			this.mask = mask;
+		}
+
+	}
+
+}
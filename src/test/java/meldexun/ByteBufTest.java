@@ -1,11 +1,29 @@
 package meldexun;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import meldexun.configutil.AggregatingInstrumentation;
 import meldexun.configutil.ByteBufUtil;
+import meldexun.configutil.SizeUtil;
+import meldexun.configutil.WireFormat;
 
 public class ByteBufTest {
 
@@ -23,4 +41,512 @@ public class ByteBufTest {
 		Assertions.assertEquals(buffer.writerIndex(), buffer.readerIndex());
 	}
 
+	@Test
+	public void testCompact() throws ReflectiveOperationException {
+		ByteBuf buffer = Unpooled.buffer();
+
+		Data src = Data.randomData();
+		src.data = Data.randomData();
+		src.dataa = new Data[] { Data.randomData() };
+		src.za = new boolean[] { true, false, true, true, false, false, true, false, true };
+		src.ia = new int[] { 0, -1, 1, Integer.MIN_VALUE, Integer.MAX_VALUE };
+		src.la = new long[] { 0L, -1L, 1L, Long.MIN_VALUE, Long.MAX_VALUE };
+
+		ByteBufUtil.write(src, buffer, null, WireFormat.COMPACT);
+		Data dest = ByteBufUtil.read(Data.class, buffer, null, WireFormat.COMPACT);
+		Data.assertEquals(src, dest);
+		Assertions.assertEquals(buffer.writerIndex(), buffer.readerIndex());
+	}
+
+	public static class NonNullData {
+
+		@ByteBufUtil.NonNull
+		public String string = "";
+		public String nullable;
+		public String[] stringa;
+
+	}
+
+	@Test
+	public void testNullBitmap() throws ReflectiveOperationException {
+		WireFormat format = WireFormat.of(WireFormat.Feature.COMPACT, WireFormat.Feature.NULL_BITMAP);
+		ByteBuf buffer = Unpooled.buffer();
+
+		Data src = Data.randomData();
+		src.data = Data.randomData();
+		src.dataa = new Data[] { Data.randomData(), null, Data.randomData() };
+		src.stringa = new String[] { null, "a", null, "b", "c", null, null, null, "d" };
+		src.string = null;
+
+		ByteBufUtil.write(src, buffer, null, format);
+		Data dest = ByteBufUtil.read(Data.class, buffer, null, format);
+		Data.assertEquals(src, dest);
+		Assertions.assertEquals(buffer.writerIndex(), buffer.readerIndex());
+
+		NonNullData nonNull = new NonNullData();
+		nonNull.stringa = new String[] { "a", null };
+		buffer.clear();
+		ByteBufUtil.write(nonNull, buffer, null, format);
+		Assertions.assertEquals(7, buffer.writerIndex());
+		NonNullData nonNullDest = ByteBufUtil.read(NonNullData.class, buffer, null, format);
+		Assertions.assertEquals(nonNull.string, nonNullDest.string);
+		Assertions.assertNull(nonNullDest.nullable);
+		Assertions.assertArrayEquals(nonNull.stringa, nonNullDest.stringa);
+
+		nonNull.string = null;
+		Assertions.assertThrows(NullPointerException.class,
+				() -> ByteBufUtil.write(nonNull, Unpooled.buffer(), null, format));
+	}
+
+	@Test
+	public void testStringTable() throws ReflectiveOperationException {
+		WireFormat format = WireFormat.of(WireFormat.Feature.COMPACT, WireFormat.Feature.STRING_TABLE);
+		Data src = Data.randomData();
+		src.string = "minecraft:stone";
+		src.stringa = new String[] { "minecraft:dirt", "minecraft:stone", "minecraft:dirt", null };
+		src.data = Data.randomData();
+		src.data.string = "minecraft:dirt";
+
+		ByteBuf plain = Unpooled.buffer();
+		ByteBufUtil.write(src, plain, null, WireFormat.COMPACT);
+		ByteBuf buffer = Unpooled.buffer();
+		ByteBufUtil.write(src, buffer, null, format);
+		Assertions.assertTrue(buffer.writerIndex() < plain.writerIndex());
+
+		Data dest = ByteBufUtil.read(Data.class, buffer, null, format);
+		Data.assertEquals(src, dest);
+		Assertions.assertEquals(buffer.writerIndex(), buffer.readerIndex());
+		Assertions.assertSame(dest.stringa[0], dest.data.string);
+		Assertions.assertSame(dest.string, dest.stringa[1]);
+	}
+
+	@Test
+	public void testLargeArrays() throws ReflectiveOperationException {
+		ByteBuf buffer = Unpooled.buffer();
+
+		Data src = Data.randomData();
+		Random rand = ThreadLocalRandom.current();
+		src.za = new boolean[1000];
+		src.ia = rand.ints(1000).toArray();
+		src.la = rand.longs(1000).toArray();
+		src.da = rand.doubles(1000).toArray();
+
+		ByteBufUtil.write(src, buffer, null);
+		Data dest = ByteBufUtil.read(Data.class, buffer, null);
+		Data.assertEquals(src, dest);
+		Assertions.assertEquals(buffer.writerIndex(), buffer.readerIndex());
+	}
+
+	@Test
+	public void testBytecodeEngine() throws ReflectiveOperationException {
+		Data src = Data.randomData();
+		src.data = Data.randomData();
+		src.dataa = new Data[] { Data.randomData() };
+
+		ByteBuf expected = Unpooled.buffer();
+		ByteBufUtil.write(src, expected, null);
+
+		Assertions.assertTrue(ByteBufUtil.hasGeneratedSerializer(Data.class, null));
+		ByteBuf buffer = Unpooled.buffer();
+		ByteBufUtil.setEngine(ByteBufUtil.Engine.BYTECODE);
+		try {
+			ByteBufUtil.write(src, buffer, null);
+			Assertions.assertEquals(expected, buffer);
+			Data dest = ByteBufUtil.read(Data.class, buffer, null);
+			Data.assertEquals(src, dest);
+			Assertions.assertEquals(buffer.writerIndex(), buffer.readerIndex());
+		} finally {
+			ByteBufUtil.setEngine(ByteBufUtil.Engine.REFLECTION);
+		}
+	}
+
+	public interface Named {
+
+		String name();
+
+	}
+
+	public static class Tag implements Named {
+
+		private final String name;
+
+		public Tag(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String name() {
+			return name;
+		}
+
+	}
+
+	public static class SpecialTag extends Tag {
+
+		public SpecialTag(String name) {
+			super(name);
+		}
+
+	}
+
+	public static class TagHolder {
+
+		public Named named;
+		public Tag tag;
+
+	}
+
+	@Test
+	public void testSerializerHierarchy() throws ReflectiveOperationException {
+		ByteBufUtil.registerSerializer((buffer, named) -> buffer.writeInt(named.name().length()),
+				buffer -> new Tag(Integer.toString(buffer.readInt())), Named.class);
+
+		TagHolder src = new TagHolder();
+		src.named = new Tag("abc");
+		src.tag = new SpecialTag("de");
+		ByteBuf buffer = Unpooled.buffer();
+		ByteBufUtil.write(src, buffer, null);
+		TagHolder dest = ByteBufUtil.read(TagHolder.class, buffer, null);
+		Assertions.assertEquals("3", dest.named.name());
+		Assertions.assertEquals("2", dest.tag.name());
+		Assertions.assertEquals(buffer.writerIndex(), buffer.readerIndex());
+	}
+
+	public static class ShortHolder {
+
+		public Short value;
+
+	}
+
+	@Test
+	public void testSerializerOverridesBuiltIn() throws ReflectiveOperationException {
+		AtomicInteger calls = new AtomicInteger();
+		ByteBufUtil.registerSerializer((buffer, value) -> {
+			calls.incrementAndGet();
+			buffer.writeInt(value);
+		}, buffer -> {
+			calls.incrementAndGet();
+			return (short) buffer.readInt();
+		}, Short.class);
+
+		ShortHolder src = new ShortHolder();
+		src.value = 1234;
+		for (WireFormat format : new WireFormat[] { WireFormat.DEFAULT, WireFormat.COMPACT }) {
+			ByteBuf buffer = Unpooled.buffer();
+			ByteBufUtil.write(src, buffer, null, format);
+			Assertions.assertEquals(src.value, ByteBufUtil.read(ShortHolder.class, buffer, null, format).value);
+			Assertions.assertEquals(buffer.writerIndex(), buffer.readerIndex());
+		}
+		Assertions.assertEquals(4, calls.get());
+	}
+
+	@Test
+	public void testInstrumentation() throws ReflectiveOperationException {
+		Data src = Data.randomData();
+		src.data = Data.randomData();
+		AggregatingInstrumentation instrumentation = new AggregatingInstrumentation();
+		ByteBuf buffer = Unpooled.buffer();
+		ByteBufUtil.setInstrumentation(instrumentation);
+		try {
+			ByteBufUtil.write(src, buffer, null);
+			ByteBufUtil.read(Data.class, buffer, null);
+		} finally {
+			ByteBufUtil.setInstrumentation(null);
+		}
+
+		AggregatingInstrumentation.TypeStatistics data = instrumentation.getTypeStatistics().get(Data.class);
+		Assertions.assertEquals(2, data.writes.sum());
+		Assertions.assertEquals(2, data.reads.sum());
+		Assertions.assertEquals(2, data.allocated.sum());
+		Assertions.assertEquals(data.writtenBytes.sum(), data.readBytes.sum());
+		AggregatingInstrumentation.FieldStatistics i = instrumentation.getFieldStatistics()
+				.get(Data.class.getField("i"));
+		Assertions.assertEquals(8, i.writtenBytes.sum());
+		// the nested instance is written through the data field of the outer one, plus two presence bytes
+		long nested = instrumentation.getFieldStatistics().get(Data.class.getField("data")).writtenBytes.sum() - 2;
+		Assertions.assertEquals(buffer.writerIndex() - 1 + nested, data.writtenBytes.sum());
+		Assertions.assertTrue(instrumentation.report(5).contains(Data.class.getName()));
+	}
+
+	public enum Color {
+
+		RED, GREEN {
+			@Override
+			public String toString() {
+				return "green";
+			}
+		},
+		BLUE;
+
+	}
+
+	public static class Containers {
+
+		public Color color;
+		public List<String> strings;
+		public List<Data> datas;
+		public Set<Integer> ints;
+		public Map<String, List<Color>> colorsByName;
+		public EnumSet<Color> colorSet;
+		public EnumMap<Color, String> colorNames;
+
+		static Containers create() {
+			Containers containers = new Containers();
+			containers.color = Color.GREEN;
+			containers.strings = new ArrayList<>(Arrays.asList("a", null, "c"));
+			containers.datas = Collections.singletonList(Data.randomData());
+			containers.ints = new HashSet<>(Arrays.asList(1, -5, 300));
+			containers.colorsByName = new HashMap<>();
+			containers.colorsByName.put("warm", Arrays.asList(Color.RED));
+			containers.colorsByName.put("all", Arrays.asList(Color.values()));
+			containers.colorSet = EnumSet.of(Color.RED, Color.BLUE);
+			containers.colorNames = new EnumMap<>(Color.class);
+			containers.colorNames.put(Color.GREEN, "g");
+			return containers;
+		}
+
+	}
+
+	@Test
+	public void testCollections() throws ReflectiveOperationException {
+		Containers src = Containers.create();
+		for (WireFormat format : new WireFormat[] { WireFormat.DEFAULT, WireFormat.COMPACT }) {
+			ByteBuf buffer = Unpooled.buffer();
+			ByteBufUtil.write(src, buffer, null, format);
+			Containers dest = ByteBufUtil.read(Containers.class, buffer, null, format);
+			Assertions.assertEquals(buffer.writerIndex(), buffer.readerIndex());
+			Assertions.assertSame(Color.GREEN, dest.color);
+			Assertions.assertEquals(src.strings, dest.strings);
+			Assertions.assertEquals(1, dest.datas.size());
+			Data.assertEquals(src.datas.get(0), dest.datas.get(0));
+			Assertions.assertEquals(src.ints, dest.ints);
+			Assertions.assertEquals(src.colorsByName, dest.colorsByName);
+			Assertions.assertEquals(src.colorSet, dest.colorSet);
+			Assertions.assertEquals(src.colorNames, dest.colorNames);
+		}
+
+		Containers dest = new Containers();
+		dest.strings = new ArrayList<>();
+		dest.datas = new ArrayList<>(Arrays.asList(new Data(), new Data()));
+		Data reused = dest.datas.get(0);
+		ByteBuf buffer = Unpooled.buffer();
+		ByteBufUtil.setEngine(ByteBufUtil.Engine.BYTECODE);
+		try {
+			ByteBufUtil.write(src, buffer, null);
+			List<String> strings = dest.strings;
+			ByteBufUtil.read(dest, buffer, null);
+			Assertions.assertSame(strings, dest.strings);
+			Assertions.assertEquals(src.strings, dest.strings);
+			Assertions.assertEquals(Collections.singletonList(reused), dest.datas);
+			Data.assertEquals(src.datas.get(0), reused);
+		} finally {
+			ByteBufUtil.setEngine(ByteBufUtil.Engine.REFLECTION);
+		}
+	}
+
+	public static class Strings {
+
+		public String[] strings;
+
+	}
+
+	@Test
+	public void testStrings() throws ReflectiveOperationException {
+		Strings src = new Strings();
+		src.strings = new String[] { "", "ascii", "\u00e4\u00f6\u00fc", "\u20ac", "\ud83d\ude00", "a\ud83dz", "\ude00",
+				"end\ud83d", "\u0000" };
+		for (WireFormat format : new WireFormat[] { WireFormat.DEFAULT, WireFormat.COMPACT }) {
+			for (ByteBuf buffer : new ByteBuf[] { Unpooled.buffer(), Unpooled.directBuffer() }) {
+				ByteBufUtil.write(src, buffer, null, format);
+				Strings dest = ByteBufUtil.read(Strings.class, buffer, null, format);
+				for (int i = 0; i < src.strings.length; i++) {
+					Assertions.assertEquals(new String(src.strings[i].getBytes(StandardCharsets.UTF_8),
+							StandardCharsets.UTF_8), dest.strings[i]);
+				}
+				Assertions.assertEquals(buffer.writerIndex(), buffer.readerIndex());
+			}
+		}
+
+		ByteBuf plain = Unpooled.buffer();
+		plain.writeBoolean(true);
+		plain.writeInt(src.strings.length);
+		for (String string : src.strings) {
+			byte[] data = string.getBytes(StandardCharsets.UTF_8);
+			plain.writeBoolean(true);
+			plain.writeInt(data.length);
+			plain.writeBytes(data);
+		}
+		ByteBuf buffer = Unpooled.buffer();
+		ByteBufUtil.write(src.strings, buffer, null);
+		Assertions.assertEquals(plain, buffer);
+	}
+
+	@Test
+	public void testStringWriteReusesBuffer() throws ReflectiveOperationException {
+		Strings src = new Strings();
+		src.strings = new String[1000];
+		for (int i = 0; i < src.strings.length; i++) {
+			src.strings[i] = (i % 2 == 0 ? "minecraft:item_" : "gr\u00fc\u00df_") + i;
+		}
+		ByteBuf buffer = Unpooled.buffer(65536);
+		ByteBufUtil.write(src, buffer, null);
+		ByteBuf expected = buffer.copy();
+		ByteBufUtil.write(src, buffer.clear(), null);
+
+		Assertions.assertEquals(expected, buffer);
+		Assertions.assertEquals(65536, buffer.capacity());
+		Assertions.assertEquals(buffer.writerIndex(), SizeUtil.sizeOf(src, null, WireFormat.DEFAULT));
+		Strings dest = ByteBufUtil.read(Strings.class, buffer, null);
+		Assertions.assertArrayEquals(src.strings, dest.strings);
+	}
+
+	@Test
+	public void testSizeOf() throws ReflectiveOperationException {
+		Data data = Data.randomData();
+		data.data = Data.randomData();
+		data.dataa = new Data[] { Data.randomData(), null };
+		Strings strings = new Strings();
+		strings.strings = new String[] { "a", "\u00e4", "a", null, "\ud83d\ude00" };
+		TagHolder tags = new TagHolder();
+		tags.tag = new Tag("tag");
+		Object[] values = { data, Containers.create(), strings, tags, new int[] { 1, -1000, 1 << 30 } };
+		WireFormat[] formats = { WireFormat.DEFAULT, WireFormat.COMPACT,
+				WireFormat.of(WireFormat.Feature.NULL_BITMAP, WireFormat.Feature.STRING_TABLE),
+				WireFormat.of(WireFormat.Feature.COMPACT, WireFormat.Feature.NULL_BITMAP,
+						WireFormat.Feature.STRING_TABLE),
+				WireFormat.of(WireFormat.Feature.TAGGED),
+				WireFormat.of(WireFormat.Feature.COMPACT, WireFormat.Feature.TAGGED),
+				WireFormat.of(WireFormat.Feature.COMPACT, WireFormat.Feature.NULL_BITMAP,
+						WireFormat.Feature.IDENTITY) };
+		for (Object value : values) {
+			for (WireFormat format : formats) {
+				ByteBuf buffer = Unpooled.buffer();
+				ByteBufUtil.write(value, buffer, null, format);
+				Assertions.assertEquals(buffer.writerIndex(), SizeUtil.sizeOf(value, null, format),
+						() -> value.getClass().getSimpleName() + " " + format);
+			}
+		}
+		Assertions.assertEquals(1, SizeUtil.sizeOf(null, null));
+	}
+
+	public static class SettingsV1 {
+
+		public int count;
+		public String name;
+		public long[] values;
+		public Data data;
+
+	}
+
+	public static class SettingsV2 {
+
+		public int count;
+		public boolean enabled = true;
+		public long[] values;
+
+	}
+
+	@Test
+	public void testTagged() throws ReflectiveOperationException {
+		WireFormat format = WireFormat.of(WireFormat.Feature.COMPACT, WireFormat.Feature.NULL_BITMAP,
+				WireFormat.Feature.TAGGED);
+		Data data = Data.randomData();
+		data.data = Data.randomData();
+		data.dataa = new Data[] { Data.randomData(), null };
+		ByteBuf buffer = Unpooled.buffer();
+		ByteBufUtil.write(data, buffer, null, format);
+		Data.assertEquals(data, ByteBufUtil.read(Data.class, buffer, null, format));
+		Assertions.assertEquals(buffer.writerIndex(), buffer.readerIndex());
+
+		SettingsV1 v1 = new SettingsV1();
+		v1.count = 3;
+		v1.name = "v1";
+		v1.values = new long[100];
+		Arrays.fill(v1.values, Long.MAX_VALUE);
+		v1.data = data;
+		buffer = Unpooled.buffer();
+		ByteBufUtil.write(v1, buffer, null, format);
+		Assertions.assertEquals(buffer.writerIndex(), SizeUtil.sizeOf(v1, null, format));
+
+		SettingsV2 v2 = ByteBufUtil.read(SettingsV2.class, buffer, null, format);
+		Assertions.assertEquals(buffer.writerIndex(), buffer.readerIndex());
+		Assertions.assertEquals(3, v2.count);
+		Assertions.assertTrue(v2.enabled);
+		Assertions.assertArrayEquals(v1.values, v2.values);
+
+		buffer.readerIndex(0);
+		SettingsV1 subset = ByteBufUtil.read(SettingsV1.class, buffer, field -> !field.getName().equals("values"),
+				format);
+		Assertions.assertEquals(buffer.writerIndex(), buffer.readerIndex());
+		Assertions.assertEquals("v1", subset.name);
+		Assertions.assertNull(subset.values);
+		Data.assertEquals(data, subset.data);
+
+		Assertions.assertThrows(IllegalArgumentException.class, () -> ByteBufUtil.write(v1, Unpooled.buffer(), null,
+				WireFormat.of(WireFormat.Feature.TAGGED, WireFormat.Feature.STRING_TABLE)));
+	}
+
+	public static class Node {
+
+		public int value;
+		public Node next;
+		public int[] ints;
+		public List<Node> children;
+
+	}
+
+	@Test
+	public void testIdentity() throws ReflectiveOperationException {
+		WireFormat format = WireFormat.of(WireFormat.Feature.COMPACT, WireFormat.Feature.IDENTITY);
+		Node a = new Node();
+		Node b = new Node();
+		a.value = 1;
+		b.value = 2;
+		a.next = b;
+		b.next = a;
+		a.ints = new int[] { 1, 2, 3 };
+		b.ints = a.ints;
+		a.children = new ArrayList<>(Arrays.asList(b, b, a));
+
+		ByteBuf buffer = Unpooled.buffer();
+		ByteBufUtil.write(a, buffer, null, format);
+		Assertions.assertEquals(buffer.writerIndex(), SizeUtil.sizeOf(a, null, format));
+		Node dest = ByteBufUtil.read(Node.class, buffer, null, format);
+		Assertions.assertEquals(buffer.writerIndex(), buffer.readerIndex());
+		Assertions.assertEquals(1, dest.value);
+		Assertions.assertEquals(2, dest.next.value);
+		Assertions.assertSame(dest, dest.next.next);
+		Assertions.assertSame(dest.ints, dest.next.ints);
+		Assertions.assertArrayEquals(a.ints, dest.ints);
+		Assertions.assertSame(dest.next, dest.children.get(0));
+		Assertions.assertSame(dest.next, dest.children.get(1));
+		Assertions.assertSame(dest, dest.children.get(2));
+
+		// objects of the destination shared by both nodes are only read into once
+		Node reused = new Node();
+		reused.next = new Node();
+		reused.ints = new int[3];
+		reused.next.ints = reused.ints;
+		b.ints = new int[] { 4, 5, 6 };
+		buffer.clear();
+		ByteBufUtil.write(a, buffer, null, format);
+		Assertions.assertSame(reused, ByteBufUtil.read(reused, buffer, null, format));
+		Assertions.assertArrayEquals(a.ints, reused.ints);
+		Assertions.assertArrayEquals(b.ints, reused.next.ints);
+
+		// collections are shared like objects and may contain the object holding them
+		Node c = new Node();
+		Node d = new Node();
+		c.children = new ArrayList<>(Arrays.asList(c, d));
+		d.children = c.children;
+		buffer.clear();
+		ByteBufUtil.write(c, buffer, null, format);
+		Assertions.assertEquals(buffer.writerIndex(), SizeUtil.sizeOf(c, null, format));
+		Node copy = ByteBufUtil.read(Node.class, buffer, null, format);
+		Assertions.assertEquals(buffer.writerIndex(), buffer.readerIndex());
+		Assertions.assertEquals(2, copy.children.size());
+		Assertions.assertSame(copy, copy.children.get(0));
+		Assertions.assertSame(copy.children, copy.children.get(1).children);
+	}
+
 }
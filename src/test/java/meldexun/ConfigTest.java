@@ -0,0 +1,428 @@
+package meldexun;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import meldexun.configutil.AsyncEncoder;
+import meldexun.configutil.BinarySnapshotUtil;
+import meldexun.configutil.ChunkedReader;
+import meldexun.configutil.ChunkedWriter;
+import meldexun.configutil.CompressionUtil;
+import meldexun.configutil.ConfigUtil;
+import meldexun.configutil.ConfigUtil.Sync;
+import meldexun.configutil.PayloadCache;
+import meldexun.configutil.SyncSnapshot;
+import meldexun.configutil.WireFormat;
+
+public class ConfigTest {
+
+	public static class Config {
+
+		@Sync
+		public int i;
+		@Sync
+		public String string;
+		@Sync
+		public int[] ia;
+		@Sync
+		public Config config;
+		@Sync
+		public Config[] configa;
+		public int clientOnly;
+
+	}
+
+	private static Config randomConfig() {
+		Data data = Data.randomData();
+		Config config = new Config();
+		config.i = data.i;
+		config.string = data.string;
+		config.ia = new int[] { data.i, data.s, data.b };
+		config.clientOnly = data.i;
+		return config;
+	}
+
+	private static void assertSynced(Config expected, Config actual) {
+		Assertions.assertEquals(expected == null, actual == null);
+		if (expected == null) {
+			return;
+		}
+		Assertions.assertEquals(expected.i, actual.i);
+		Assertions.assertEquals(expected.string, actual.string);
+		Assertions.assertArrayEquals(expected.ia, actual.ia);
+		assertSynced(expected.config, actual.config);
+		Assertions.assertEquals(expected.configa == null, actual.configa == null);
+		if (expected.configa != null) {
+			Assertions.assertEquals(expected.configa.length, actual.configa.length);
+			for (int i = 0; i < expected.configa.length; i++) {
+				assertSynced(expected.configa[i], actual.configa[i]);
+			}
+		}
+	}
+
+	@Test
+	public void testDelta() throws ReflectiveOperationException {
+		Config server = randomConfig();
+		server.config = randomConfig();
+		server.configa = new Config[] { randomConfig(), randomConfig() };
+		Config client = new Config();
+		SyncSnapshot<Config> snapshot = new SyncSnapshot<>();
+
+		ByteBuf full = Unpooled.buffer();
+		ConfigUtil.writeServerSettingsDelta(server, snapshot, full, WireFormat.COMPACT);
+		ConfigUtil.readServerSettings(client, full);
+		assertSynced(server, client);
+		Assertions.assertEquals(full.writerIndex(), full.readerIndex());
+
+		server.config.ia[1]++;
+		server.configa[1].string = "changed";
+		ByteBuf delta = Unpooled.buffer();
+		ConfigUtil.writeServerSettingsDelta(server, snapshot, delta, WireFormat.COMPACT);
+		Assertions.assertTrue(delta.writerIndex() < full.writerIndex());
+		ConfigUtil.readServerSettings(client, delta);
+		assertSynced(server, client);
+		Assertions.assertEquals(delta.writerIndex(), delta.readerIndex());
+
+		ByteBuf empty = Unpooled.buffer();
+		ConfigUtil.writeServerSettingsDelta(server, snapshot, empty, WireFormat.COMPACT);
+		Assertions.assertEquals(2, empty.writerIndex());
+
+		client.configa = new Config[] { new Config() };
+		server.configa[1].i++;
+		ByteBuf mismatch = Unpooled.buffer();
+		ConfigUtil.writeServerSettingsDelta(server, snapshot, mismatch, WireFormat.COMPACT);
+		Assertions.assertThrows(IllegalStateException.class, () -> ConfigUtil.readServerSettings(client, mismatch));
+	}
+
+	@Test
+	public void testCompression() throws ReflectiveOperationException {
+		Config server = randomConfig();
+		server.configa = new Config[64];
+		for (int i = 0; i < server.configa.length; i++) {
+			server.configa[i] = new Config();
+			server.configa[i].string = server.string;
+			server.configa[i].ia = server.ia;
+		}
+		WireFormat format = WireFormat.of(WireFormat.Feature.COMPRESSION);
+
+		ByteBuf uncompressed = Unpooled.buffer();
+		ConfigUtil.writeServerSettings(server, uncompressed, WireFormat.DEFAULT);
+
+		int threshold = CompressionUtil.getThreshold();
+		try {
+			CompressionUtil.setThreshold(0);
+			ByteBuf compressed = Unpooled.buffer();
+			ConfigUtil.writeServerSettings(server, compressed, format);
+			Assertions.assertTrue(WireFormat.readHeader(compressed.duplicate()).has(WireFormat.Feature.COMPRESSION));
+			Assertions.assertTrue(compressed.writerIndex() < uncompressed.writerIndex());
+			Config client = new Config();
+			ConfigUtil.readServerSettings(client, compressed);
+			assertSynced(server, client);
+			Assertions.assertEquals(compressed.writerIndex(), compressed.readerIndex());
+
+			CompressionUtil.setThreshold(Integer.MAX_VALUE);
+			ByteBuf skipped = Unpooled.buffer();
+			ConfigUtil.writeServerSettings(server, skipped, format);
+			Assertions.assertEquals(uncompressed, skipped);
+		} finally {
+			CompressionUtil.setThreshold(threshold);
+		}
+	}
+
+	@Test
+	public void testPresized() throws ReflectiveOperationException {
+		Config server = randomConfig();
+		server.config = randomConfig();
+		server.configa = new Config[] { randomConfig(), null };
+		for (WireFormat format : new WireFormat[] { WireFormat.DEFAULT, WireFormat.COMPACT }) {
+			ByteBuf buffer = ConfigUtil.writeServerSettings(server, UnpooledByteBufAllocator.DEFAULT, format);
+			try {
+				Assertions.assertEquals(buffer.capacity(), buffer.writerIndex());
+				Config client = new Config();
+				ConfigUtil.readServerSettings(client, buffer);
+				assertSynced(server, client);
+			} finally {
+				buffer.release();
+			}
+		}
+	}
+
+	@Test
+	public void testPayloadCache() throws ReflectiveOperationException {
+		Config server = randomConfig();
+		server.config = randomConfig();
+		PayloadCache<Config> cache = new PayloadCache<>(UnpooledByteBufAllocator.DEFAULT, WireFormat.COMPACT, true);
+
+		ByteBuf first = cache.get(server);
+		ByteBuf second = cache.get(server);
+		Assertions.assertEquals(1, cache.getVersion());
+		Assertions.assertTrue(first.isReadOnly());
+		Assertions.assertEquals(first, second);
+		Config client = new Config();
+		ConfigUtil.readServerSettings(client, first);
+		assertSynced(server, client);
+		Assertions.assertEquals(0, second.readerIndex());
+
+		server.clientOnly++;
+		ByteBuf unchanged = cache.get(server);
+		Assertions.assertEquals(1, cache.getVersion());
+		server.config.i++;
+		ByteBuf changed = cache.get(server);
+		Assertions.assertEquals(2, cache.getVersion());
+		ConfigUtil.readServerSettings(client, changed);
+		assertSynced(server, client);
+
+		// the old encoding stays alive until its last duplicate is released
+		Assertions.assertEquals(3, first.refCnt());
+		first.release();
+		second.release();
+		Assertions.assertTrue(unchanged.release());
+		cache.invalidate();
+		Assertions.assertTrue(changed.release());
+	}
+
+	@Test
+	public void testAsyncEncoder() throws Exception {
+		Config server = randomConfig();
+		server.config = randomConfig();
+		List<Runnable> tasks = new ArrayList<>();
+		AsyncEncoder<Config> encoder = new AsyncEncoder<>(UnpooledByteBufAllocator.DEFAULT, WireFormat.COMPACT,
+				tasks::add);
+
+		CompletableFuture<ByteBuf> first = encoder.encode(server);
+		CompletableFuture<ByteBuf> second = encoder.encode(server);
+		int synced = server.i;
+		server.i++;
+		CompletableFuture<ByteBuf> changed = encoder.encode(server);
+		Assertions.assertEquals(2, tasks.size());
+		Assertions.assertFalse(first.isDone());
+		tasks.forEach(Runnable::run);
+
+		Config client = new Config();
+		ConfigUtil.readServerSettings(client, first.get());
+		Assertions.assertEquals(synced, client.i);
+		Assertions.assertEquals(first.get().readerIndex(0), second.get());
+		ConfigUtil.readServerSettings(client, changed.get());
+		assertSynced(server, client);
+		first.get().release();
+		Assertions.assertTrue(second.get().release());
+		Assertions.assertTrue(changed.get().release());
+
+		ExecutorService executor = AsyncEncoder.newExecutor(1, 1);
+		try {
+			ByteBuf buffer = new AsyncEncoder<Config>(UnpooledByteBufAllocator.DEFAULT, WireFormat.DEFAULT, executor)
+					.encode(server)
+					.get(10, TimeUnit.SECONDS);
+			ConfigUtil.readServerSettings(client, buffer);
+			assertSynced(server, client);
+			buffer.release();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testBinarySnapshot(@TempDir Path dir) throws IOException, ReflectiveOperationException {
+		Path source = dir.resolve("config.cfg");
+		Path snapshot = dir.resolve("config.bin");
+		Files.write(source, "i=7".getBytes(StandardCharsets.UTF_8));
+		int[] textLoads = new int[1];
+		BinarySnapshotUtil.TextLoader<Config> textLoader = (path, dest) -> {
+			textLoads[0]++;
+			dest.i = Integer.parseInt(new String(Files.readAllBytes(path), StandardCharsets.UTF_8).substring(2));
+			dest.string = "text";
+			dest.config = randomConfig();
+		};
+
+		Config first = new Config();
+		BinarySnapshotUtil.load(source, snapshot, first, null, WireFormat.COMPACT, textLoader);
+		Assertions.assertEquals(1, textLoads[0]);
+		Assertions.assertTrue(Files.exists(snapshot));
+
+		Config second = new Config();
+		BinarySnapshotUtil.load(source, snapshot, second, null, WireFormat.COMPACT, textLoader);
+		Assertions.assertEquals(1, textLoads[0]);
+		assertSynced(first, second);
+		Assertions.assertEquals(first.config.clientOnly, second.config.clientOnly);
+
+		Files.write(source, "i=8".getBytes(StandardCharsets.UTF_8));
+		Config third = new Config();
+		BinarySnapshotUtil.load(source, snapshot, third, null, WireFormat.COMPACT, textLoader);
+		Assertions.assertEquals(2, textLoads[0]);
+		Assertions.assertEquals(8, third.i);
+
+		byte[] bytes = Files.readAllBytes(snapshot);
+		Files.write(snapshot, Arrays.copyOf(bytes, bytes.length - 4));
+		Config fourth = new Config();
+		Assertions.assertFalse(BinarySnapshotUtil.read(snapshot, fourth, BinarySnapshotUtil.hash(source), null));
+		Assertions.assertEquals(0, fourth.i);
+		Assertions.assertNull(fourth.config);
+		Assertions.assertFalse(Files.exists(snapshot));
+		BinarySnapshotUtil.load(source, snapshot, fourth, null, WireFormat.COMPACT, textLoader);
+		Assertions.assertEquals(3, textLoads[0]);
+		Assertions.assertEquals(8, fourth.i);
+		Assertions.assertTrue(Files.exists(snapshot));
+
+		Assertions.assertFalse(BinarySnapshotUtil.read(snapshot, new Config(), BinarySnapshotUtil.hash(source),
+				ConfigUtil.SYNC_FIELDS));
+		Assertions.assertNotEquals(BinarySnapshotUtil.fingerprint(Config.class, null),
+				BinarySnapshotUtil.fingerprint(Config.class, ConfigUtil.SYNC_FIELDS));
+
+		Path unwritable = dir.resolve("missing").resolve("config.bin");
+		Config fifth = new Config();
+		BinarySnapshotUtil.load(source, unwritable, fifth, null, WireFormat.COMPACT, textLoader);
+		Assertions.assertEquals(4, textLoads[0]);
+		Assertions.assertEquals(8, fifth.i);
+	}
+
+	@Test
+	public void testChunked() throws ReflectiveOperationException {
+		Config server = randomConfig();
+		server.config = randomConfig();
+		server.ia = ThreadLocalRandom.current().ints(1000).toArray();
+		server.configa = new Config[32];
+		for (int i = 0; i < server.configa.length; i += 2) {
+			server.configa[i] = randomConfig();
+		}
+		for (WireFormat format : new WireFormat[] { WireFormat.DEFAULT, WireFormat.COMPACT,
+				WireFormat.of(WireFormat.Feature.NULL_BITMAP, WireFormat.Feature.STRING_TABLE) }) {
+			ByteBuf expected = Unpooled.buffer();
+			ConfigUtil.writeServerSettings(server, expected, format);
+
+			List<ByteBuf> chunks = new ArrayList<>();
+			ConfigUtil.writeServerSettingsChunked(server, format, 7, chunks::add);
+			Assertions.assertTrue(chunks.size() > 1);
+			ByteBuf joined = Unpooled.buffer();
+			for (ByteBuf chunk : chunks) {
+				Assertions.assertTrue(chunk.readableBytes() <= 7);
+				joined.writeBytes(chunk, chunk.readerIndex(), chunk.readableBytes());
+			}
+			Assertions.assertEquals(expected, joined);
+
+			Config client = new Config();
+			ChunkedReader<Config> reader = ConfigUtil.readServerSettingsChunked(client);
+			for (int i = 0; i < chunks.size(); i++) {
+				Assertions.assertEquals(i == chunks.size() - 1, reader.accept(chunks.get(i)));
+				chunks.get(i).release();
+			}
+			assertSynced(server, client);
+		}
+	}
+
+	@Test
+	public void testChunkedContainers() throws ReflectiveOperationException {
+		ByteBufTest.Containers src = ByteBufTest.Containers.create();
+		for (WireFormat format : new WireFormat[] { WireFormat.DEFAULT, WireFormat.COMPACT }) {
+			List<ByteBuf> chunks = new ArrayList<>();
+			ChunkedWriter.write(ByteBufTest.Containers.class, src, null, format, 3, chunks::add);
+
+			ByteBufTest.Containers dest = new ByteBufTest.Containers();
+			dest.strings = new ArrayList<>(Arrays.asList("x", "y", "z", "w"));
+			List<String> strings = dest.strings;
+			ChunkedReader<ByteBufTest.Containers> reader = new ChunkedReader<>(dest, null);
+			for (ByteBuf chunk : chunks) {
+				reader.accept(chunk);
+				chunk.release();
+			}
+			Assertions.assertTrue(reader.isFinished());
+			Assertions.assertSame(strings, dest.strings);
+			Assertions.assertEquals(src.strings, dest.strings);
+			Assertions.assertEquals(1, dest.datas.size());
+			Data.assertEquals(src.datas.get(0), dest.datas.get(0));
+			Assertions.assertEquals(src.ints, dest.ints);
+			Assertions.assertEquals(src.colorsByName, dest.colorsByName);
+			Assertions.assertEquals(src.colorSet, dest.colorSet);
+			Assertions.assertEquals(src.colorNames, dest.colorNames);
+		}
+
+		// chunks are emitted while the list is written instead of after it
+		List<ByteBuf> listChunks = new ArrayList<>();
+		int[] listChunksBeforeLast = new int[1];
+		src.strings = new AbstractList<String>() {
+
+			@Override
+			public String get(int index) {
+				if (index == size() - 1) {
+					listChunksBeforeLast[0] = listChunks.size();
+				}
+				return "abcdefgh";
+			}
+
+			@Override
+			public int size() {
+				return 100;
+			}
+
+		};
+		ChunkedWriter.write(ByteBufTest.Containers.class, src, null, WireFormat.DEFAULT, 16, listChunks::add);
+		Assertions.assertTrue(listChunksBeforeLast[0] > 40);
+		listChunks.forEach(ByteBuf::release);
+
+		Config server = randomConfig();
+		server.string = new String(new char[256]).replace('\0', 'a');
+		List<ByteBuf> chunks = new ArrayList<>();
+		ConfigUtil.writeServerSettingsChunked(server, WireFormat.DEFAULT, 16, chunks::add);
+		ChunkedReader<Config> reader = new ChunkedReader<>(new Config(), ConfigUtil.SYNC_FIELDS, 64);
+		Assertions.assertThrows(IllegalStateException.class, () -> {
+			for (ByteBuf chunk : chunks) {
+				reader.accept(chunk);
+			}
+		});
+		chunks.forEach(ByteBuf::release);
+	}
+
+	@Test
+	public void testReadInPlace() throws ReflectiveOperationException {
+		Config server = randomConfig();
+		server.string = null;
+		server.config = randomConfig();
+		server.config.string = null;
+		server.configa = new Config[64];
+		for (int i = 0; i < server.configa.length; i++) {
+			server.configa[i] = randomConfig();
+			server.configa[i].string = null;
+		}
+		ByteBuf buffer = Unpooled.buffer();
+		ConfigUtil.writeServerSettings(server, buffer, WireFormat.DEFAULT);
+
+		Config client = new Config();
+		ConfigUtil.readServerSettings(client, buffer);
+		Config nested = client.config;
+		int[] ia = client.ia;
+		Config[] configa = client.configa;
+		Config element = client.configa[0];
+		int[] elementIa = client.configa[0].ia;
+
+		server.config.ia[0]++;
+		server.configa[0].i++;
+		server.configa[0].ia[2]++;
+		buffer.clear();
+		ConfigUtil.writeServerSettings(server, buffer, WireFormat.DEFAULT);
+		ConfigUtil.readServerSettings(client, buffer);
+
+		assertSynced(server, client);
+		Assertions.assertSame(nested, client.config);
+		Assertions.assertSame(ia, client.ia);
+		Assertions.assertSame(configa, client.configa);
+		Assertions.assertSame(element, client.configa[0]);
+		Assertions.assertSame(elementIa, client.configa[0].ia);
+	}
+
+}
@@ -1,11 +1,66 @@
 package meldexun;
 
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import meldexun.configutil.CopyUtil;
+import meldexun.configutil.FieldAccessor;
+import meldexun.configutil.FieldPlan;
 
 public class CopyTest {
 
+	public enum Mode {
+
+		A, B;
+
+	}
+
+	public static final class Point {
+
+		public final int x;
+		public final String name;
+
+		public Point(int x, String name) {
+			this.x = x;
+			this.name = name;
+		}
+
+	}
+
+	public static final class Box {
+
+		public final int[] values = new int[1];
+
+	}
+
+	@CopyUtil.Immutable
+	public static class Shared {
+
+		public int i;
+
+	}
+
+	public static class Holder {
+
+		public Mode mode;
+		public Point point;
+		public Box box;
+		public Shared shared;
+
+	}
+
 	@Test
 	public void testCopy() throws ReflectiveOperationException {
 		Data src = Data.randomData();
@@ -16,4 +71,195 @@ public class CopyTest {
 		Data.assertEquals(src, dest);
 	}
 
+	public static final class Late {
+
+		public int[] values = new int[1];
+
+	}
+
+	@Test
+	public void testRegisterImmutableClassLate() throws ReflectiveOperationException {
+		Late late = new Late();
+		Assertions.assertNotSame(late, CopyUtil.copy(late, null));
+		Assertions.assertFalse(CopyUtil.isImmutable(Late.class));
+
+		CopyUtil.registerImmutableClass(Late.class);
+		Assertions.assertTrue(CopyUtil.isImmutable(Late.class));
+	}
+
+	@Test
+	public void testCopyMethodHandles() throws ReflectiveOperationException {
+		Data src = Data.randomData();
+		src.data = Data.randomData();
+		src.dataa = new Data[] { Data.randomData() };
+
+		CopyUtil.setAccessorBackend(FieldAccessor.Backend.METHOD_HANDLE);
+		try {
+			Data dest = CopyUtil.copy(src, null);
+			Data.assertEquals(src, dest);
+			src.i++;
+			CopyUtil.update(src, dest, null);
+			Data.assertEquals(src, dest);
+
+			Box box = new Box();
+			box.values[0] = 3;
+			Assertions.assertEquals(3, CopyUtil.copy(box, null).values[0]);
+
+			// plans for uncached predicates are created per call, accessors are still generated once per field
+			Predicate<Field> predicate = field -> true;
+			Assertions.assertSame(
+					FieldPlan.get(Box.class, predicate).get(0).accessor(FieldAccessor.Backend.METHOD_HANDLE),
+					FieldPlan.get(Box.class, predicate).get(0).accessor(FieldAccessor.Backend.METHOD_HANDLE));
+		} finally {
+			CopyUtil.setAccessorBackend(FieldAccessor.Backend.REFLECTION);
+		}
+	}
+
+	@Test
+	public void testUpdate() throws ReflectiveOperationException {
+		Data src = Data.randomData();
+		src.data = Data.randomData();
+		src.dataa = new Data[] { Data.randomData(), Data.randomData() };
+
+		Data dest = CopyUtil.copy(src, null);
+		Data nested = dest.data;
+		int[] ia = dest.ia;
+		Data[] dataa = dest.dataa;
+
+		CopyUtil.UpdateStatistics statistics = new CopyUtil.UpdateStatistics();
+		CopyUtil.update(src, dest, null, statistics);
+		Assertions.assertEquals(0, statistics.getFieldsWritten());
+		Assertions.assertEquals(0, statistics.getObjectsWritten());
+		Assertions.assertEquals(0, statistics.getAllocations());
+
+		src.dataa[1].i++;
+		src.ia[0]++;
+		statistics.reset();
+		CopyUtil.update(src, dest, null, statistics);
+		Data.assertEquals(src, dest);
+		Assertions.assertSame(nested, dest.data);
+		Assertions.assertSame(ia, dest.ia);
+		Assertions.assertSame(dataa, dest.dataa);
+		Assertions.assertEquals(1 + src.ia.length, statistics.getFieldsWritten());
+		Assertions.assertEquals(2, statistics.getObjectsWritten());
+		Assertions.assertEquals(0, statistics.getAllocations());
+	}
+
+	@Test
+	public void testCopyParallel() throws ReflectiveOperationException {
+		Data src = Data.randomData();
+		src.dataa = new Data[2000];
+		for (int i = 0; i < src.dataa.length; i++) {
+			src.dataa[i] = Data.randomData();
+		}
+
+		int threshold = CopyUtil.getParallelThreshold();
+		CopyUtil.setParallelThreshold(1000);
+		try {
+			Data dest = CopyUtil.copy(src, null);
+			Data.assertEquals(src, dest);
+		} finally {
+			CopyUtil.setParallelThreshold(threshold);
+		}
+	}
+
+	@Test
+	public void testImmutableAnalysis() throws ReflectiveOperationException {
+		Assertions.assertTrue(CopyUtil.isImmutable(Mode.class));
+		Assertions.assertTrue(CopyUtil.isImmutable(Point.class));
+		Assertions.assertFalse(CopyUtil.isImmutable(Box.class));
+		Assertions.assertTrue(CopyUtil.isImmutable(Shared.class));
+		Assertions.assertFalse(CopyUtil.isImmutable(Holder.class));
+
+		Holder src = new Holder();
+		src.mode = Mode.B;
+		src.point = new Point(1, "p");
+		src.box = new Box();
+		src.shared = new Shared();
+		Holder dest = CopyUtil.copy(src, null);
+		Assertions.assertSame(src.mode, dest.mode);
+		Assertions.assertSame(src.point, dest.point);
+		Assertions.assertNotSame(src.box, dest.box);
+		Assertions.assertSame(src.shared, dest.shared);
+	}
+
+	public static class Containers {
+
+		public List<Box> boxes;
+		public List<String> strings;
+		public Set<Mode> modes;
+		public Map<String, Box> boxesByName;
+		public Map<Mode, Integer> counts;
+
+	}
+
+	@Test
+	public void testCopyCollections() throws ReflectiveOperationException {
+		Containers src = new Containers();
+		src.boxes = Collections.unmodifiableList(Arrays.asList(new Box(), null));
+		src.boxes.get(0).values[0] = 7;
+		src.strings = new ArrayList<>(Arrays.asList("a", "b"));
+		src.modes = EnumSet.of(Mode.B);
+		src.boxesByName = new TreeMap<>(Collections.reverseOrder());
+		src.boxesByName.put("a", new Box());
+		src.boxesByName.put("b", new Box());
+		src.counts = new EnumMap<>(Mode.class);
+		src.counts.put(Mode.A, 3);
+
+		Containers dest = CopyUtil.copy(src, null);
+		Assertions.assertEquals(ArrayList.class, dest.boxes.getClass());
+		Assertions.assertEquals(2, dest.boxes.size());
+		Assertions.assertNotSame(src.boxes.get(0), dest.boxes.get(0));
+		Assertions.assertEquals(7, dest.boxes.get(0).values[0]);
+		Assertions.assertNull(dest.boxes.get(1));
+		Assertions.assertNotSame(src.strings, dest.strings);
+		Assertions.assertSame(src.strings.get(0), dest.strings.get(0));
+		Assertions.assertEquals(src.modes, dest.modes);
+		Assertions.assertNotSame(src.modes, dest.modes);
+		Assertions.assertEquals(Arrays.asList("b", "a"), new ArrayList<>(dest.boxesByName.keySet()));
+		Assertions.assertNotSame(src.boxesByName.get("a"), dest.boxesByName.get("a"));
+		Assertions.assertEquals(src.counts, dest.counts);
+
+		List<String> strings = dest.strings;
+		Box box = dest.boxesByName.get("a");
+		src.strings.add("c");
+		src.boxesByName.get("a").values[0] = 5;
+		CopyUtil.UpdateStatistics statistics = new CopyUtil.UpdateStatistics();
+		CopyUtil.update(src, dest, null, statistics);
+		Assertions.assertSame(strings, dest.strings);
+		Assertions.assertEquals(src.strings, dest.strings);
+		Assertions.assertSame(box, dest.boxesByName.get("a"));
+		Assertions.assertEquals(5, box.values[0]);
+		Assertions.assertEquals(0, statistics.getAllocations());
+	}
+
+	public static class Node {
+
+		public Node next;
+		public Box box;
+		public List<Box> boxes;
+
+	}
+
+	@Test
+	public void testCopyShared() throws ReflectiveOperationException {
+		Node a = new Node();
+		Node b = new Node();
+		a.next = b;
+		b.next = a;
+		a.box = new Box();
+		b.box = a.box;
+		a.boxes = new ArrayList<>(Arrays.asList(a.box, a.box));
+		b.boxes = a.boxes;
+
+		Node copy = CopyUtil.copyShared(a, null);
+		Assertions.assertNotSame(a, copy);
+		Assertions.assertSame(copy, copy.next.next);
+		Assertions.assertNotSame(a.box, copy.box);
+		Assertions.assertSame(copy.box, copy.next.box);
+		Assertions.assertSame(copy.boxes, copy.next.boxes);
+		Assertions.assertSame(copy.box, copy.boxes.get(0));
+		Assertions.assertSame(copy.box, copy.boxes.get(1));
+	}
+
 }